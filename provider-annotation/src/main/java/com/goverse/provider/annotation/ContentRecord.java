@@ -0,0 +1,18 @@
+package com.goverse.provider.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a data class of SPContentAdapter, for which a reflection-free
+ * RecordCodec named {@code <Outer_Inner>_RecordCodec} is generated in the same package:
+ * ContentValues applier, cursor row writer and Gson TypeAdapter.
+ * The class must have a no-arg constructor accessible in its package, and all
+ * instance fields must be public, non-final, of type long, int, double, boolean or String.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ContentRecord {
+}
@@ -0,0 +1,406 @@
+package com.goverse.provider.compiler;
+
+import com.goverse.provider.annotation.ContentRecord;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates {@code <Outer_Inner>_RecordCodec} for every class annotated with {@link ContentRecord},
+ * implementing com.goverse.provider.adapter.RecordCodec with plain field access:
+ * ContentValues applier, typed cursor row writer and Gson TypeAdapter.
+ */
+public class ContentRecordProcessor extends AbstractProcessor {
+
+    private static final String SUFFIX = "_RecordCodec";
+
+    /**
+     * Supported field, type is the name of AccessorPlan TYPE_* constant.
+     */
+    private static class Column {
+        final String name;
+        final String type;
+
+        Column(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        boolean isLong() { return "TYPE_LONG".equals(type); }
+        boolean isInt() { return "TYPE_INT".equals(type); }
+        boolean isDouble() { return "TYPE_DOUBLE".equals(type); }
+        boolean isBoolean() { return "TYPE_BOOLEAN".equals(type); }
+        boolean isString() { return "TYPE_STRING".equals(type); }
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ContentRecord.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(ContentRecord.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@ContentRecord can only be applied to class");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            List<Column> columns = collectColumns(type);
+            if (columns == null) continue;
+            try {
+                generate(type, columns);
+            } catch (IOException e) {
+                error(type, "failed to generate codec: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private List<Column> collectColumns(TypeElement type) {
+        boolean valid = true;
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "@ContentRecord class must not be private or abstract");
+            valid = false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+            error(type, "@ContentRecord nested class must be static");
+            valid = false;
+        }
+        if (!"java.lang.Object".equals(type.getSuperclass().toString())) {
+            error(type, "@ContentRecord class must extend Object directly");
+            valid = false;
+        }
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            error(type, "@ContentRecord class must have a non-private no-arg constructor");
+            valid = false;
+        }
+
+        List<Column> columns = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> fieldModifiers = field.getModifiers();
+            if (fieldModifiers.contains(Modifier.STATIC) || fieldModifiers.contains(Modifier.TRANSIENT)) continue;
+            String columnType = columnType(field.asType());
+            if (columnType == null || !fieldModifiers.contains(Modifier.PUBLIC) || fieldModifiers.contains(Modifier.FINAL)) {
+                error(field, "@ContentRecord field must be public, non-final, of type long, int, double, boolean or String");
+                valid = false;
+                continue;
+            }
+            columns.add(new Column(field.getSimpleName().toString(), columnType));
+        }
+        return valid ? columns : null;
+    }
+
+    private static String columnType(TypeMirror type) {
+        TypeKind kind = type.getKind();
+        if (kind == TypeKind.LONG) return "TYPE_LONG";
+        if (kind == TypeKind.INT) return "TYPE_INT";
+        if (kind == TypeKind.DOUBLE) return "TYPE_DOUBLE";
+        if (kind == TypeKind.BOOLEAN) return "TYPE_BOOLEAN";
+        if (kind == TypeKind.DECLARED && "java.lang.String".equals(type.toString())) return "TYPE_STRING";
+        return null;
+    }
+
+    private void generate(TypeElement type, List<Column> columns) throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String codecName = flatName(type) + SUFFIX;
+        String t = type.getQualifiedName().toString();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by ContentRecordProcessor. Do not edit.\n");
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("import android.content.ContentValues;\n");
+        sb.append("import com.google.gson.TypeAdapter;\n");
+        sb.append("import com.google.gson.stream.JsonReader;\n");
+        sb.append("import com.google.gson.stream.JsonToken;\n");
+        sb.append("import com.google.gson.stream.JsonWriter;\n");
+        sb.append("import com.goverse.provider.adapter.AccessorPlan;\n");
+        sb.append("import com.goverse.provider.adapter.RecordCodec;\n");
+        sb.append("import com.goverse.provider.adapter.RowWriter;\n");
+        sb.append("import java.io.IOException;\n");
+        sb.append("import java.util.Arrays;\n\n");
+
+        sb.append("public final class ").append(codecName).append(" implements RecordCodec<").append(t).append("> {\n\n");
+
+        sb.append("    private static final String[] COLUMNS = {");
+        for (int i = 0; i < columns.size(); i ++) {
+            if (i > 0) sb.append(", ");
+            sb.append('"').append(columns.get(i).name).append('"');
+        }
+        sb.append("};\n\n");
+        sb.append("    private static final int[] TYPES = {");
+        for (int i = 0; i < columns.size(); i ++) {
+            if (i > 0) sb.append(", ");
+            sb.append("AccessorPlan.").append(columns.get(i).type);
+        }
+        sb.append("};\n\n");
+
+        sb.append("    private static final class ResolvedProjection {\n");
+        sb.append("        final String[] projection;\n");
+        sb.append("        final int[] indexes;\n\n");
+        sb.append("        ResolvedProjection(String[] projection, int[] indexes) {\n");
+        sb.append("            this.projection = projection;\n");
+        sb.append("            this.indexes = indexes;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    private volatile ResolvedProjection mResolvedProjection;\n\n");
+
+        // type adapter
+        sb.append("    private final TypeAdapter<").append(t).append("> mTypeAdapter = new TypeAdapter<").append(t).append(">() {\n");
+        sb.append("        @Override\n");
+        sb.append("        public void write(JsonWriter out, ").append(t).append(" t) throws IOException {\n");
+        sb.append("            if (t == null) {\n");
+        sb.append("                out.nullValue();\n");
+        sb.append("                return;\n");
+        sb.append("            }\n");
+        sb.append("            out.beginObject();\n");
+        for (Column column : columns) {
+            if (column.isString()) {
+                sb.append("            if (t.").append(column.name).append(" != null) {\n");
+                sb.append("                out.name(\"").append(column.name).append("\").value(t.").append(column.name).append(");\n");
+                sb.append("            }\n");
+            } else {
+                sb.append("            out.name(\"").append(column.name).append("\").value(t.").append(column.name).append(");\n");
+            }
+        }
+        sb.append("            out.endObject();\n");
+        sb.append("        }\n\n");
+        sb.append("        @Override\n");
+        sb.append("        public ").append(t).append(" read(JsonReader in) throws IOException {\n");
+        sb.append("            if (in.peek() == JsonToken.NULL) {\n");
+        sb.append("                in.nextNull();\n");
+        sb.append("                return null;\n");
+        sb.append("            }\n");
+        sb.append("            ").append(t).append(" t = new ").append(t).append("();\n");
+        sb.append("            in.beginObject();\n");
+        sb.append("            while (in.hasNext()) {\n");
+        sb.append("                String name = in.nextName();\n");
+        sb.append("                if (in.peek() == JsonToken.NULL) {\n");
+        sb.append("                    in.nextNull();\n");
+        sb.append("                    continue;\n");
+        sb.append("                }\n");
+        sb.append("                switch (name) {\n");
+        for (Column column : columns) {
+            sb.append("                    case \"").append(column.name).append("\": t.").append(column.name).append(" = in.");
+            if (column.isLong()) sb.append("nextLong()");
+            else if (column.isInt()) sb.append("nextInt()");
+            else if (column.isDouble()) sb.append("nextDouble()");
+            else if (column.isBoolean()) sb.append("nextBoolean()");
+            else sb.append("nextString()");
+            sb.append("; break;\n");
+        }
+        sb.append("                    default: in.skipValue(); break;\n");
+        sb.append("                }\n");
+        sb.append("            }\n");
+        sb.append("            in.endObject();\n");
+        sb.append("            return t;\n");
+        sb.append("        }\n");
+        sb.append("    };\n\n");
+
+        // columns
+        sb.append("    @Override\n");
+        sb.append("    public String[] getColumns() {\n");
+        sb.append("        return COLUMNS;\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public int getColumnCount() {\n");
+        sb.append("        return COLUMNS.length;\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public int getType(int index) {\n");
+        sb.append("        return TYPES[index];\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public int indexOf(String column) {\n");
+        sb.append("        if (column == null) return -1;\n");
+        sb.append("        switch (column) {\n");
+        for (int i = 0; i < columns.size(); i ++) {
+            sb.append("            case \"").append(columns.get(i).name).append("\": return ").append(i).append(";\n");
+        }
+        sb.append("            default: return -1;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public int[] resolve(String[] projection) {\n");
+        sb.append("        ResolvedProjection resolved = mResolvedProjection;\n");
+        sb.append("        if (resolved != null && Arrays.equals(resolved.projection, projection)) {\n");
+        sb.append("            return resolved.indexes;\n");
+        sb.append("        }\n");
+        sb.append("        int[] indexes = new int[projection.length];\n");
+        sb.append("        for (int i = 0; i < projection.length; i ++) {\n");
+        sb.append("            indexes[i] = indexOf(projection[i]);\n");
+        sb.append("        }\n");
+        sb.append("        mResolvedProjection = new ResolvedProjection(projection.clone(), indexes);\n");
+        sb.append("        return indexes;\n");
+        sb.append("    }\n\n");
+
+        // getters
+        sb.append("    @Override\n");
+        sb.append("    public Object get(").append(t).append(" t, int index) {\n");
+        sb.append("        if (t == null) return null;\n");
+        sb.append("        switch (index) {\n");
+        for (int i = 0; i < columns.size(); i ++) {
+            sb.append("            case ").append(i).append(": return t.").append(columns.get(i).name).append(";\n");
+        }
+        sb.append("            default: return null;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public long getLong(").append(t).append(" t, int index) {\n");
+        sb.append("        switch (index) {\n");
+        for (int i = 0; i < columns.size(); i ++) {
+            Column column = columns.get(i);
+            if (column.isString()) continue;
+            sb.append("            case ").append(i).append(": return ");
+            if (column.isDouble()) sb.append("(long) t.").append(column.name);
+            else if (column.isBoolean()) sb.append("t.").append(column.name).append(" ? 1 : 0");
+            else sb.append("t.").append(column.name);
+            sb.append(";\n");
+        }
+        sb.append("            default: return 0;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public double getDouble(").append(t).append(" t, int index) {\n");
+        sb.append("        switch (index) {\n");
+        for (int i = 0; i < columns.size(); i ++) {
+            Column column = columns.get(i);
+            if (column.isString()) continue;
+            sb.append("            case ").append(i).append(": return ");
+            if (column.isBoolean()) sb.append("t.").append(column.name).append(" ? 1 : 0");
+            else sb.append("t.").append(column.name);
+            sb.append(";\n");
+        }
+        sb.append("            default: return 0;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public String getString(").append(t).append(" t, int index) {\n");
+        sb.append("        switch (index) {\n");
+        for (int i = 0; i < columns.size(); i ++) {
+            Column column = columns.get(i);
+            sb.append("            case ").append(i).append(": return ");
+            if (column.isString()) sb.append("t.").append(column.name);
+            else sb.append("String.valueOf(t.").append(column.name).append(")");
+            sb.append(";\n");
+        }
+        sb.append("            default: return null;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        // ContentValues applier
+        sb.append("    @Override\n");
+        sb.append("    public void apply(").append(t).append(" t, ContentValues contentValues) {\n");
+        sb.append("        for (String key : contentValues.keySet()) {\n");
+        sb.append("            switch (key) {\n");
+        for (Column column : columns) {
+            sb.append("                case \"").append(column.name).append("\": {\n");
+            if (column.isString()) {
+                sb.append("                    String value = contentValues.getAsString(key);\n");
+                sb.append("                    t.").append(column.name).append(" = value != null ? value : \"\";\n");
+            } else {
+                String boxed = column.isLong() ? "Long" : column.isInt() ? "Integer" : column.isDouble() ? "Double" : "Boolean";
+                sb.append("                    ").append(boxed).append(" value = contentValues.getAs").append(boxed).append("(key);\n");
+                sb.append("                    if (value != null) t.").append(column.name).append(" = value;\n");
+            }
+            sb.append("                    break;\n");
+            sb.append("                }\n");
+        }
+        sb.append("                default:\n");
+        sb.append("                    break;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        // row writer
+        sb.append("    @Override\n");
+        sb.append("    public void writeRow(").append(t).append(" t, int[] indexes, RowWriter writer) {\n");
+        sb.append("        int count = indexes != null ? indexes.length : COLUMNS.length;\n");
+        sb.append("        for (int i = 0; i < count; i ++) {\n");
+        sb.append("            switch (indexes != null ? indexes[i] : i) {\n");
+        for (int i = 0; i < columns.size(); i ++) {
+            Column column = columns.get(i);
+            sb.append("                case ").append(i).append(": ");
+            if (column.isString()) {
+                sb.append("if (t.").append(column.name).append(" != null) writer.putString(i, t.").append(column.name)
+                        .append("); else writer.putNull(i);");
+            } else if (column.isDouble()) {
+                sb.append("writer.putDouble(i, t.").append(column.name).append(");");
+            } else if (column.isBoolean()) {
+                sb.append("writer.putLong(i, t.").append(column.name).append(" ? 1 : 0);");
+            } else {
+                sb.append("writer.putLong(i, t.").append(column.name).append(");");
+            }
+            sb.append(" break;\n");
+        }
+        sb.append("                default: writer.putNull(i); break;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Override\n");
+        sb.append("    public TypeAdapter<").append(t).append("> getTypeAdapter() {\n");
+        sb.append("        return mTypeAdapter;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedCodecName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    /**
+     * name of class and its enclosing classes joined by '_', matching RecordCodecs lookup.
+     */
+    private static String flatName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, ((TypeElement) enclosing).getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
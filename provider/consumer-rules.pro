@@ -0,0 +1,4 @@
+# codecs generated for @ContentRecord are looked up by name.
+-keep class * implements com.goverse.provider.adapter.RecordCodec {
+    public <init>();
+}
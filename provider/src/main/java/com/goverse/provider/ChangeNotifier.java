@@ -0,0 +1,120 @@
+package com.goverse.provider;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatcher of content change notifications, which coalesces notifications of the same uri
+ * raised within a window and delivers them on its own thread instead of binder thread,
+ * so that observers are woken up once per burst of writes.
+ */
+public class ChangeNotifier {
+
+    private final String TAG = ChangeNotifier.class.getSimpleName();
+
+    /**
+     * default coalescing window in millis.
+     */
+    public static final long DEFAULT_WINDOW = 50;
+
+    private final Context mContext;
+
+    private final long mWindowMillis;
+
+    private final HandlerThread mHandlerThread;
+
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+
+    private Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    private boolean mScheduled;
+
+    private final AtomicLong mRawCount = new AtomicLong();
+
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    public ChangeNotifier(Context context, long windowMillis) {
+        mContext = context;
+        mWindowMillis = Math.max(0, windowMillis);
+        mHandlerThread = new HandlerThread("provider-notifier", Process.THREAD_PRIORITY_BACKGROUND);
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+    }
+
+    /**
+     * notify change of uris, delivered once per uri at the end of current window.
+     * @param uris uris
+     */
+    public void notifyChange(Collection<Uri> uris) {
+        if (uris == null || uris.isEmpty()) return;
+        mRawCount.addAndGet(uris.size());
+        synchronized (mLock) {
+            mPendingUris.addAll(uris);
+            if (!mScheduled) {
+                mScheduled = true;
+                mHandler.postDelayed(mDispatchRunnable, mWindowMillis);
+            }
+        }
+    }
+
+    private void dispatch() {
+        Set<Uri> uris;
+        synchronized (mLock) {
+            mScheduled = false;
+            if (mPendingUris.isEmpty()) return;
+            uris = mPendingUris;
+            mPendingUris = new LinkedHashSet<>();
+        }
+        for (Uri uri : uris) {
+            try {
+                mContext.getContentResolver().notifyChange(uri, null);
+                mDeliveredCount.incrementAndGet();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        Log.d(TAG, "dispatch---uris: " + uris.size());
+    }
+
+    /**
+     * deliver pending notifications now and stop dispatching thread.
+     */
+    public void shutdown() {
+        mHandler.removeCallbacksAndMessages(null);
+        dispatch();
+        mHandlerThread.quitSafely();
+    }
+
+    /**
+     * count of notifications raised by writes.
+     * @return rawCount
+     */
+    public long getRawCount() {
+        return mRawCount.get();
+    }
+
+    /**
+     * count of notifications delivered to ContentResolver.
+     * @return deliveredCount
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+}
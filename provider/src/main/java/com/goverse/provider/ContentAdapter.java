@@ -4,15 +4,23 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.goverse.provider.export.RowSink;
+import com.goverse.provider.export.RowSinks;
+
+import java.io.IOException;
+
 /**
  * Base Adapter object of Provider defines how to provide data source,
  * and it's abled to finish CURD operation after matchering the binding uri
  * dispatched by {@link com.goverse.provider.OpenProvider}.
- * There are two subclass:
+ * There are subclasses:
  * {@link SPContentAdapter}，data source provide by sharedPreference.
- * Maybe you can implement BaseFileContentAdaper，BaseMemoryContentAdaper.
+ * {@link DBContentAdapter}, data source provide by database.
+ * {@link MemoryContentAdapter}, recent records kept in memory.
+ * Maybe you can implement BaseFileContentAdaper.
  */
 @SuppressWarnings("JavadocReference")
 public abstract class ContentAdapter {
@@ -24,6 +32,14 @@ public abstract class ContentAdapter {
 
     protected final String TAG = this.getClass().getSimpleName();
 
+    /**
+     * Creates adapter on the first request of its uris, or when prewarmed,
+     * see {@link ContentProcessor#add(int, Factory)}.
+     */
+    public interface Factory {
+        ContentAdapter create();
+    }
+
     public ContentAdapter(ContentProvider contentProvider) {
         mContentProvider = contentProvider;
     }
@@ -65,6 +81,93 @@ public abstract class ContentAdapter {
      */
     public abstract int delete(@Nullable String selection, @Nullable String[] selectionArgs);
 
+    /**
+     * write rows of query to sink and finish it, called on export thread while the reader
+     * consumes rows from the other end of a pipe, see {@link ContentProcessor#openExport(Uri, String)}.
+     * Writes rows of {@link #query(String[], String, String[], String)} by default,
+     * adapters of large data should override to stream rows without building a cursor.
+     * @param projection projection
+     * @param selection selection
+     * @param selectionArgs selectionArgs
+     * @param sortOrder sortOrder
+     * @param sink sink
+     * @throws IOException if sink failed, such as reader closed the pipe
+     */
+    public void export(@Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs,
+                       @Nullable String sortOrder, @NonNull RowSink sink) throws IOException {
+        Cursor cursor = query(projection, selection, selectionArgs, sortOrder);
+        if (cursor == null) {
+            sink.begin(projection != null ? projection : new String[0]);
+            sink.finish();
+            return;
+        }
+        try {
+            RowSinks.writeCursor(cursor, sink);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * bulkInsert {@link ContentProvider#bulkInsert(Uri, ContentValues[])}
+     * called between {@link #beginBatch()} and {@link #endBatch()}, inserts one by one by default.
+     * @param values values
+     * @return count inserted
+     */
+    public int bulkInsert(@NonNull ContentValues[] values) {
+        int count = 0;
+        for (ContentValues value : values) {
+            if (insert(value)) count ++;
+        }
+        return count;
+    }
+
+    /**
+     * millis a query result may be served from {@link QueryCache} until a write is routed to
+     * this adapter, 0 to not cache. Only return positive if data is changed by writes through
+     * the provider alone, and results depend on nothing but the query, such as the current time.
+     * @return ttl
+     */
+    public long queryCacheTtl() {
+        return 0;
+    }
+
+    /**
+     * Called once on background thread after the adapter is created at startup,
+     * load storage and warm up codecs here so that the first request does not pay for them.
+     * Requests may arrive while it runs, loading must be safe to race with them.
+     */
+    public void prewarm() {
+    }
+
+    /**
+     * Called on calling thread before a batch of writes is applied to this adapter,
+     * such as bulkInsert and applyBatch.
+     */
+    public void beginBatch() {
+    }
+
+    /**
+     * Called on calling thread after the batch of writes, the writes
+     * should be persisted in one transaction.
+     */
+    public void endBatch() {
+    }
+
+    /**
+     * flush data pending in memory to persistence storage,
+     * returns after the data is persisted.
+     */
+    public void flush() {
+    }
+
+    /**
+     * Called when provider is shut down, pending data must be flushed.
+     */
+    public void shutdown() {
+        flush();
+    }
+
     /**
      * Used to match the type of contentData to read or write.
      * Can not access if scope not settled.
@@ -2,16 +2,39 @@ package com.goverse.provider;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.goverse.provider.export.PipeOutputStream;
+import com.goverse.provider.export.RowSink;
+import com.goverse.provider.export.RowSinks;
+import com.goverse.provider.adapter.RecordCursor;
+import com.goverse.provider.auth.AuthScope;
+import com.goverse.provider.metrics.ProviderMetrics;
+import com.goverse.provider.permission.AdmissionController;
 import com.goverse.provider.permission.PermissionChecker;
 import com.goverse.provider.proxy.ProviderProxy;
+import com.goverse.provider.util.ProviderExecutors;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  *  ContentProcessor is a uri dispatcher for provider,
  *  which is abled to dispatch different uri to kinds of adapters
@@ -24,35 +47,352 @@ public class ContentProcessor {
 
     private ContentProvider mContentProvider;
 
-    private Map<Integer, ContentAdapter> mContentAdapterMap;
+    /**
+     * adapter factories registered by {@link #add(int, ContentAdapter.Factory)}, frozen into {@link #mRouteTable}.
+     */
+    private Map<Integer, ContentAdapter.Factory> mContentAdapterMap;
+
+    /**
+     * dense dispatch table indexed by match code, built once registration is done.
+     */
+    private volatile Route[] mRouteTable;
+
+    /**
+     * max size of {@link #mRouteCache}.
+     */
+    private static final int MAX_ROUTE_CACHE_SIZE = 64;
+
+    /**
+     * route of uri not matching any adapter.
+     */
+    private static final Route NO_ROUTE = new Route(UrisMatcher.NO_MATCH, null, null);
+
+    /**
+     * recently resolved uris, to skip UriMatcher for uris polled repeatedly.
+     */
+    private final ConcurrentHashMap<Uri, Route> mRouteCache = new ConcurrentHashMap<>();
 
     private final String TAG  = ContentProcessor.class.getSimpleName();
 
     private PermissionChecker mPermissionChecker;
 
+    /**
+     * State of batch applying on current binder thread.
+     */
+    private static class Batch {
+        /**
+         * permission result by operation flag and scope, caller is the same in a batch.
+         */
+        final Map<String, Boolean> authorized = new HashMap<>();
+        final Set<ContentAdapter> adapters = new LinkedHashSet<>();
+        final Set<Uri> writtenUris = new HashSet<>();
+        final Set<Route> changedRoutes = new LinkedHashSet<>();
+        int depth;
+    }
+
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    private ChangeNotifier mChangeNotifier;
+
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+    /**
+     * cache of query results, null if not enabled.
+     */
+    private volatile QueryCache mQueryCache;
+
+    private AdmissionController mAdmissionController;
+
+    private String mAppPackageName;
+
+    /**
+     * startup being prewarmed, null if not prewarmed.
+     */
+    private volatile ProviderStartup mStartup;
+
+    /**
+     * max millis a request waits for caller list at startup, checked against built-in entries after it.
+     */
+    private static final long AUTH_READY_TIMEOUT = 2000;
+
+    /**
+     * max binder threads waiting for caller list at once, see {@link #awaitAuth(String)}.
+     */
+    private static final int MAX_AUTH_WAITERS = 4;
+
+    private final AtomicInteger mAuthWaiters = new AtomicInteger();
+
+    /**
+     * query parameters of export uri, see {@link #openExport(Uri, String)}.
+     */
+    public static final String PARAM_PROJECTION = "projection";
+
+    public static final String PARAM_SELECTION = "selection";
+
+    public static final String PARAM_SELECTION_ARG = "arg";
+
+    public static final String PARAM_SORT_ORDER = "sort";
+
+    public static final String PARAM_FORMAT = "format";
+
+    /**
+     * max millis an export waits for its reader to make room in the pipe, closed with error after it.
+     */
+    private static final long EXPORT_STALL_TIMEOUT = 30000;
+
+    /**
+     * methods of {@link #call(String, String, Bundle)}.
+     */
+    public static final String METHOD_READ = "read";
+
+    public static final String METHOD_READ_BATCH = "readBatch";
+
+    /**
+     * extras of call, uris of batch read and query arguments applied to every uri.
+     */
+    public static final String EXTRA_URIS = "uris";
+
+    public static final String EXTRA_PROJECTION = "projection";
+
+    public static final String EXTRA_SELECTION = "selection";
+
+    public static final String EXTRA_SELECTION_ARGS = "selectionArgs";
+
+    public static final String EXTRA_SORT_ORDER = "sortOrder";
+
+    /**
+     * keys of a read result.
+     */
+    public static final String RESULT_URI = "uri";
+
+    public static final String RESULT_OUTCOME = "outcome";
+
+    public static final String RESULT_COUNT = "count";
+
+    public static final String RESULT_ROW = "row";
+
+    /**
+     * message of an invalid request, set with {@link ProviderMetrics#OUTCOME_ERROR} only if
+     * projection, selection or sortOrder is rejected, absent if the provider failed.
+     */
+    public static final String RESULT_ERROR = "error";
+
+    /**
+     * results of batch read, in order of {@link #EXTRA_URIS}.
+     */
+    public static final String RESULT_RESULTS = "results";
+
+    /**
+     * max uris of a batch read, to keep the reply well below binder transaction limit.
+     */
+    public static final int MAX_BATCH_READ = 32;
+
     public ContentProcessor(ContentProvider contentProvider, UrisMatcher uriMatcher) {
+        this(contentProvider, uriMatcher, ChangeNotifier.DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param contentProvider contentProvider
+     * @param uriMatcher uriMatcher
+     * @param notifyWindow window in millis to coalesce change notifications of the same uri
+     */
+    public ContentProcessor(ContentProvider contentProvider, UrisMatcher uriMatcher, long notifyWindow) {
         mContentProvider = contentProvider;
         mUriMatcher = uriMatcher;
+        mAppPackageName = mContentProvider.getContext().getApplicationInfo().packageName;
         mPermissionChecker = new PermissionChecker(mContentProvider.getContext());
+        mAdmissionController = new AdmissionController(mContentProvider.getContext());
+        mChangeNotifier = new ChangeNotifier(mContentProvider.getContext(), notifyWindow);
+    }
+
+    public ChangeNotifier getChangeNotifier() {
+        return mChangeNotifier;
+    }
+
+    /**
+     * latency and throughput metrics of operations.
+     * @return metrics
+     */
+    public ProviderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * rate limiting and in flight bound of callers.
+     * @return admissionController
+     */
+    public AdmissionController getAdmissionController() {
+        return mAdmissionController;
+    }
+
+    /**
+     * enable caching query results of adapters returning a positive {@link ContentAdapter#queryCacheTtl()}.
+     * @param maxEntries max results cached
+     * @param maxCells max cells of all results, rows × columns
+     */
+    public void enableQueryCache(int maxEntries, int maxCells) {
+        mQueryCache = new QueryCache(maxEntries, maxCells);
     }
 
-    public void add(int matchCode, ContentAdapter contentAdapter) {
+    /**
+     * @return query cache, null if not enabled
+     */
+    public QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    /**
+     * register adapter of match code, must be called before the first request.
+     * @param matchCode code added in {@link UrisMatcher}
+     * @param contentAdapter contentAdapter
+     */
+    public void add(int matchCode, final ContentAdapter contentAdapter) {
+        add(matchCode, new ContentAdapter.Factory() {
+            @Override
+            public ContentAdapter create() {
+                return contentAdapter;
+            }
+        });
+    }
+
+    /**
+     * register factory of adapter of match code, must be called before the first request.
+     * The adapter is created on the first request of its uris, or by {@link #prewarm(ProviderStartup)}.
+     * @param matchCode code added in {@link UrisMatcher}
+     * @param factory factory
+     */
+    public synchronized void add(int matchCode, ContentAdapter.Factory factory) {
+        if (mRouteTable != null) {
+            throw new IllegalStateException("adapters have been frozen, add before the first request");
+        }
+        if (matchCode < 0) {
+            throw new IllegalArgumentException("invalid match code: " + matchCode);
+        }
         if (mContentAdapterMap == null) {
             mContentAdapterMap = new HashMap<>();
         }
 
-        mContentAdapterMap.put(matchCode, contentAdapter);
+        mContentAdapterMap.put(matchCode, factory);
+    }
+
+    /**
+     * freeze registered adapters into dispatch table, called automatically on the first request.
+     */
+    public synchronized void freeze() {
+        if (mRouteTable != null) return;
+        int maxCode = -1;
+        if (mContentAdapterMap != null) {
+            for (Integer code : mContentAdapterMap.keySet()) {
+                maxCode = Math.max(maxCode, code);
+            }
+        }
+        Route[] routeTable = new Route[maxCode + 1];
+        if (mContentAdapterMap != null) {
+            for (Map.Entry<Integer, ContentAdapter.Factory> entry : mContentAdapterMap.entrySet()) {
+                int code = entry.getKey();
+                routeTable[code] = new Route(code, entry.getValue(), mUriMatcher.getUriListByCode(code));
+            }
+        }
+        mRouteTable = routeTable;
+    }
+
+    /**
+     * Prewarm on background thread, after adapters are registered: load caller list and compile
+     * permission index, then create and {@link ContentAdapter#prewarm()} adapters one by one.
+     * Requests meanwhile don't wait for adapters, a route creates its adapter on demand,
+     * but wait for caller list before their permission is checked, see {@link #awaitAuth(String)}.
+     * Registration is frozen.
+     * @param startup startup recording {@link ProviderStartup#PHASE_AUTH} and {@link ProviderStartup#PHASE_ADAPTERS}
+     */
+    public void prewarm(final ProviderStartup startup) {
+        mStartup = startup;
+        final Route[] routeTable = getRouteTable();
+        final Context context = mContentProvider.getContext();
+        ProviderExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                startup.begin(ProviderStartup.PHASE_AUTH);
+                try {
+                    AuthScope.load(context);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    startup.end(ProviderStartup.PHASE_AUTH);
+                }
+                startup.begin(ProviderStartup.PHASE_ADAPTERS);
+                try {
+                    for (Route route : routeTable) {
+                        if (route == null) continue;
+                        long start = SystemClock.elapsedRealtime();
+                        try {
+                            route.getAdapter().prewarm();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                        Log.d(TAG, "prewarm---code: " + route.code + ", cost: " + (SystemClock.elapsedRealtime() - start));
+                    }
+                } finally {
+                    startup.end(ProviderStartup.PHASE_ADAPTERS);
+                }
+            }
+        });
+    }
+
+    /**
+     * wait for caller list at startup, so that early callers are not denied by built-in entries.
+     * App itself, callers already in built-in entries and null callers never wait,
+     * at most {@link #MAX_AUTH_WAITERS} binder threads wait at once, others are throttled.
+     * @param callingPackage callingPackage
+     * @return false if too many requests are waiting, the request should be throttled
+     */
+    private boolean awaitAuth(String callingPackage) {
+        ProviderStartup startup = mStartup;
+        if (startup == null || startup.isReady(ProviderStartup.PHASE_AUTH)) return true;
+        if (callingPackage == null || mAppPackageName.equalsIgnoreCase(callingPackage)) return true;
+        AuthScope.Snapshot snapshot = AuthScope.getSnapshot();
+        if (snapshot.callerWhiteListConfigMap.containsKey(callingPackage)
+                || snapshot.callerListConfigMap.containsKey(callingPackage)) return true;
+        if (mAuthWaiters.incrementAndGet() > MAX_AUTH_WAITERS) {
+            mAuthWaiters.decrementAndGet();
+            Log.d(TAG, "awaitAuth---too many waiting, throttle " + callingPackage);
+            return false;
+        }
+        try {
+            if (!startup.await(ProviderStartup.PHASE_AUTH, AUTH_READY_TIMEOUT)) {
+                Log.d(TAG, "awaitAuth---caller list not ready, checking " + callingPackage + " with built-in entries");
+            }
+        } finally {
+            mAuthWaiters.decrementAndGet();
+        }
+        return true;
+    }
+
+    private Route[] getRouteTable() {
+        Route[] routeTable = mRouteTable;
+        if (routeTable == null) {
+            freeze();
+            routeTable = mRouteTable;
+        }
+        return routeTable;
     }
 
-    private ContentAdapter getContentAdapter(Uri uri) {
-        Log.d(TAG, "getContentAdapter---uri: " + uri);
-        if (mContentAdapterMap == null) return null;
-        int code = mUriMatcher.match(uri);
-        boolean containsKey = mContentAdapterMap.containsKey(code);
-        if (containsKey) {
-            return mContentAdapterMap.get(code);
+    /**
+     * resolve uri to route.
+     * @param uri uri
+     * @return route, null if no adapter matched
+     */
+    private Route resolve(Uri uri) {
+        Route route = mRouteCache.get(uri);
+        if (route == null) {
+            Route[] routeTable = getRouteTable();
+            int code = mUriMatcher.match(uri);
+            route = code >= 0 && code < routeTable.length && routeTable[code] != null ? routeTable[code] : NO_ROUTE;
+            if (mRouteCache.size() >= MAX_ROUTE_CACHE_SIZE) {
+                mRouteCache.clear();
+            }
+            mRouteCache.put(uri, route);
         }
-        return null;
+        return route != NO_ROUTE ? route : null;
     }
 
     private String getCallingPackage() {
@@ -67,63 +407,549 @@ public class ContentProcessor {
 
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws SecurityException{
         Log.d(TAG, "query---uri: " + uri);
-        ContentAdapter contentAdapter = getContentAdapter(uri);
-        Log.d(TAG, "contentAdapter is null: " + (contentAdapter == null));
-        if (contentAdapter != null && mPermissionChecker.checkQuery(getCallingPackage(), contentAdapter.readScope())) {
-            ProviderProxy.getInstance().notifyOnRead(uri);
+        long startNanos = System.nanoTime();
+        String callingPackage = getCallingPackage();
+        Route route = resolve(uri);
+        Log.d(TAG, "route is null: " + (route == null));
+        if (route == null) {
+            record(null, ProviderMetrics.OP_QUERY, callingPackage, ProviderMetrics.OUTCOME_NO_ROUTE, startNanos, startNanos, 0);
+            return null;
+        }
+        if (!awaitAuth(callingPackage) || !mAdmissionController.admit(callingPackage)) {
+            record(route, ProviderMetrics.OP_QUERY, callingPackage, ProviderMetrics.OUTCOME_THROTTLED, startNanos, startNanos, 0);
+            return new RecordCursor(projection != null ? projection : new String[0]);
+        }
+        try {
+            return query(route, uri, projection, selection, selectionArgs, sortOrder, callingPackage, startNanos);
+        } finally {
+            mAdmissionController.release();
+        }
+    }
+
+    private Cursor query(Route route, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                         String callingPackage, long startNanos) {
+        boolean granted = mPermissionChecker.checkQuery(callingPackage, route.getAdapter().readScope());
+        long checkedNanos = System.nanoTime();
+        if (!granted) {
+            record(route, ProviderMetrics.OP_QUERY, callingPackage, ProviderMetrics.OUTCOME_DENIED, startNanos, checkedNanos, 0);
+            return null;
+        }
+        ProviderProxy.getInstance().notifyOnRead(uri);
+        int outcome = ProviderMetrics.OUTCOME_ERROR;
+        int count = 0;
+        try {
+            Cursor cursor = queryAdapter(route, projection, selection, selectionArgs, sortOrder);
+            count = cursor != null ? cursor.getCount() : 0;
+            outcome = count > 0 ? ProviderMetrics.OUTCOME_OK : ProviderMetrics.OUTCOME_EMPTY;
+            return cursor;
+        } finally {
+            record(route, ProviderMetrics.OP_QUERY, callingPackage, outcome, startNanos, checkedNanos, count);
+        }
+    }
+
+    /**
+     * query adapter of route, served from {@link QueryCache} if enabled and cached.
+     */
+    private Cursor queryAdapter(Route route, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        ContentAdapter contentAdapter = route.getAdapter();
+        QueryCache queryCache = mQueryCache;
+        long ttl = queryCache != null ? contentAdapter.queryCacheTtl() : 0;
+        if (ttl <= 0) {
             return contentAdapter.query(projection, selection, selectionArgs, sortOrder);
         }
-        return null;
+        String key = QueryCache.key(route, projection, selection, selectionArgs, sortOrder);
+        Cursor cached = queryCache.get(key, contentAdapter);
+        if (cached != null) {
+            return cached;
+        }
+        // read before querying, so that a write during the query discards the result.
+        long generation = queryCache.generation(contentAdapter);
+        Cursor cursor = contentAdapter.query(projection, selection, selectionArgs, sortOrder);
+        return queryCache.put(key, contentAdapter, generation, ttl, cursor);
     }
 
-    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
-        Log.d(TAG, "insert---uri: " + uri);
-        ContentAdapter contentAdapter = getContentAdapter(uri);
-        if (contentAdapter != null && mPermissionChecker.checkInsert(getCallingPackage(), contentAdapter.writeScope())) {
-            ProviderProxy.getInstance().notifyOnWrite(uri);
-            if (contentAdapter.insert(values)) {
-                notifyContentChange(uri);
-                return uri;
+    /**
+     * Read current rows of uris without a cursor, values are returned in a Bundle of a single
+     * binder transaction, saving CursorWindow allocation and the round trip of closing a cursor.
+     * {@link #METHOD_READ}: arg is the uri, returns its result.
+     * {@link #METHOD_READ_BATCH}: {@link #EXTRA_URIS} string array of up to {@link #MAX_BATCH_READ} uris,
+     * returns {@link #RESULT_RESULTS} in the same order, uris may match different adapters.
+     * Optional {@link #EXTRA_PROJECTION}, {@link #EXTRA_SELECTION}, {@link #EXTRA_SELECTION_ARGS}
+     * and {@link #EXTRA_SORT_ORDER} apply to every uri.
+     * A result holds {@link #RESULT_URI}, {@link #RESULT_OUTCOME} of ProviderMetrics.OUTCOME_*,
+     * {@link #RESULT_COUNT} of rows matched, and {@link #RESULT_ROW} of the first row by column name if any.
+     * An invalid request has {@link #RESULT_ERROR} of the reason.
+     * Read permission is checked as query, once per scope, and the call is admitted once.
+     * @param method method
+     * @param arg uri of {@link #METHOD_READ}
+     * @param extras extras
+     * @return result, null if method is unknown
+     */
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        String[] uris;
+        if (METHOD_READ.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("uri is required as arg of " + method);
+            }
+            uris = new String[]{arg};
+        } else if (METHOD_READ_BATCH.equals(method)) {
+            uris = extras != null ? extras.getStringArray(EXTRA_URIS) : null;
+            if (uris == null) {
+                throw new IllegalArgumentException(EXTRA_URIS + " is required by " + method);
+            }
+            if (uris.length > MAX_BATCH_READ) {
+                throw new IllegalArgumentException("too many uris: " + uris.length + ", max: " + MAX_BATCH_READ);
+            }
+        } else {
+            return null;
+        }
+        Log.d(TAG, "call---method: " + method + ", count: " + uris.length);
+        String[] projection = extras != null ? extras.getStringArray(EXTRA_PROJECTION) : null;
+        String selection = extras != null ? extras.getString(EXTRA_SELECTION) : null;
+        String[] selectionArgs = extras != null ? extras.getStringArray(EXTRA_SELECTION_ARGS) : null;
+        String sortOrder = extras != null ? extras.getString(EXTRA_SORT_ORDER) : null;
+        String callingPackage = getCallingPackage();
+        ArrayList<Bundle> results = new ArrayList<>(uris.length);
+        boolean admitted = awaitAuth(callingPackage) && mAdmissionController.admit(callingPackage);
+        try {
+            Map<String, Boolean> authorized = new HashMap<>();
+            for (String uri : uris) {
+                results.add(read(Uri.parse(uri), admitted, projection, selection, selectionArgs, sortOrder, callingPackage, authorized));
             }
+        } finally {
+            if (admitted) mAdmissionController.release();
         }
-        return null;
+        if (METHOD_READ.equals(method)) {
+            return results.get(0);
+        }
+        Bundle bundle = new Bundle();
+        bundle.putParcelableArrayList(RESULT_RESULTS, results);
+        return bundle;
     }
 
-    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
-        Log.d(TAG, "update---uri: " + uri);
-        ContentAdapter contentAdapter = getContentAdapter(uri);
-        if (contentAdapter != null && mPermissionChecker.checkUpdate(getCallingPackage(), contentAdapter.writeScope())) {
-            ProviderProxy.getInstance().notifyOnWrite(uri);
-            int updateCount = contentAdapter.update(values, selection, selectionArgs);
-            if (updateCount > 0) {
-                notifyContentChange(uri);
-                return updateCount;
+    /**
+     * read a uri of call, failure of it is reported as outcome, not failing other uris of the batch.
+     * @param authorized read permission by scope in this call
+     * @return result
+     */
+    private Bundle read(Uri uri, boolean admitted, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, String callingPackage, Map<String, Boolean> authorized) {
+        long startNanos = System.nanoTime();
+        long checkedNanos = startNanos;
+        Bundle result = new Bundle();
+        result.putString(RESULT_URI, uri.toString());
+        Route route = resolve(uri);
+        int outcome;
+        int count = 0;
+        if (route == null) {
+            outcome = ProviderMetrics.OUTCOME_NO_ROUTE;
+        } else if (!admitted) {
+            outcome = ProviderMetrics.OUTCOME_THROTTLED;
+        } else {
+            String scope = route.getAdapter().readScope();
+            Boolean granted = authorized.get(scope);
+            if (granted == null) {
+                granted = mPermissionChecker.checkQuery(callingPackage, scope);
+                authorized.put(scope, granted);
+            }
+            checkedNanos = System.nanoTime();
+            if (!granted) {
+                outcome = ProviderMetrics.OUTCOME_DENIED;
+            } else {
+                ProviderProxy.getInstance().notifyOnRead(uri);
+                outcome = ProviderMetrics.OUTCOME_ERROR;
+                try {
+                    Cursor cursor = queryAdapter(route, projection, selection, selectionArgs, sortOrder);
+                    if (cursor != null) {
+                        try {
+                            count = cursor.getCount();
+                            if (cursor.moveToFirst()) {
+                                result.putBundle(RESULT_ROW, toBundle(cursor));
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                    outcome = count > 0 ? ProviderMetrics.OUTCOME_OK : ProviderMetrics.OUTCOME_EMPTY;
+                } catch (IllegalArgumentException e) {
+                    // invalid projection, selection or sortOrder, reported to the caller as query throws it.
+                    Log.w(TAG, "read---invalid request of " + uri + ": " + e.getMessage());
+                    result.putString(RESULT_ERROR, e.getMessage() != null ? e.getMessage() : e.toString());
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "read---failed to read " + uri, e);
+                }
+            }
+        }
+        result.putInt(RESULT_OUTCOME, outcome);
+        result.putInt(RESULT_COUNT, count);
+        record(route, ProviderMetrics.OP_CALL_READ, callingPackage, outcome, startNanos, checkedNanos, count);
+        return result;
+    }
+
+    /**
+     * current row of cursor by column name, keeping types of cells.
+     */
+    private static Bundle toBundle(Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        Bundle row = new Bundle(columns.length);
+        for (int i = 0; i < columns.length; i ++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER: row.putLong(columns[i], cursor.getLong(i)); break;
+                case Cursor.FIELD_TYPE_FLOAT: row.putDouble(columns[i], cursor.getDouble(i)); break;
+                case Cursor.FIELD_TYPE_BLOB: row.putByteArray(columns[i], cursor.getBlob(i)); break;
+                case Cursor.FIELD_TYPE_NULL: row.putString(columns[i], null); break;
+                default: row.putString(columns[i], cursor.getString(i)); break;
             }
         }
-        return 0;
+        return row;
+    }
+
+    /**
+     * Open a pipe streaming rows of uri, written on export thread while the caller reads,
+     * so that large results are neither built in memory nor limited by binder transaction size.
+     * Query parameters of uri: {@link #PARAM_PROJECTION} comma separated, {@link #PARAM_SELECTION},
+     * {@link #PARAM_SELECTION_ARG} repeated in order, {@link #PARAM_SORT_ORDER} and {@link #PARAM_FORMAT}.
+     * Read permission is checked on calling thread before the pipe is opened.
+     * A caller has at most {@link AdmissionController#MAX_EXPORTS_PER_CALLER} exports until their writers finish,
+     * exports beyond the bounded export queue are rejected, and a pipe not read for
+     * {@link #EXPORT_STALL_TIMEOUT} is closed with error.
+     * @param uri uri with query parameters
+     * @param mimeType {@link RowSinks#MIME_NDJSON} or {@link RowSinks#MIME_BINARY}, null to use {@link #PARAM_FORMAT}
+     * @return read side of pipe, failure while writing is reported to a reliable pipe reader as IOException
+     * @throws FileNotFoundException if no adapter matched, format is unknown or too many exports
+     * @throws SecurityException if caller is not permitted to read
+     */
+    public ParcelFileDescriptor openExport(@NonNull Uri uri, @Nullable String mimeType) throws FileNotFoundException {
+        Log.d(TAG, "openExport---uri: " + uri + ", mimeType: " + mimeType);
+        final long startNanos = System.nanoTime();
+        final String callingPackage = getCallingPackage();
+        // match and cache by path, query parameters differ per export.
+        final Route route = resolve(uri.buildUpon().clearQuery().build());
+        if (route == null) {
+            record(null, ProviderMetrics.OP_EXPORT, callingPackage, ProviderMetrics.OUTCOME_NO_ROUTE, startNanos, startNanos, 0);
+            throw new FileNotFoundException("no adapter of uri: " + uri);
+        }
+        String requestedFormat = mimeType != null ? mimeType : uri.getQueryParameter(PARAM_FORMAT);
+        final String format = RowSinks.resolve(requestedFormat);
+        if (format == null) {
+            throw new FileNotFoundException("unsupported export format: " + requestedFormat);
+        }
+        // only opening is admitted, writing runs on export executor.
+        if (!awaitAuth(callingPackage) || !mAdmissionController.admit(callingPackage)) {
+            record(route, ProviderMetrics.OP_EXPORT, callingPackage, ProviderMetrics.OUTCOME_THROTTLED, startNanos, startNanos, 0);
+            throw new FileNotFoundException("too many requests of " + callingPackage);
+        }
+        boolean granted;
+        try {
+            granted = mPermissionChecker.checkQuery(callingPackage, route.getAdapter().readScope());
+        } finally {
+            mAdmissionController.release();
+        }
+        final long checkedNanos = System.nanoTime();
+        if (!granted) {
+            record(route, ProviderMetrics.OP_EXPORT, callingPackage, ProviderMetrics.OUTCOME_DENIED, startNanos, checkedNanos, 0);
+            throw new SecurityException("permission denied of " + callingPackage + " to export " + uri);
+        }
+        String projectionParam = uri.getQueryParameter(PARAM_PROJECTION);
+        final String[] projection = projectionParam != null && !projectionParam.isEmpty() ? projectionParam.split(",") : null;
+        final String selection = uri.getQueryParameter(PARAM_SELECTION);
+        List<String> args = uri.getQueryParameters(PARAM_SELECTION_ARG);
+        final String[] selectionArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+        final String sortOrder = uri.getQueryParameter(PARAM_SORT_ORDER);
+        // counted until the writer finishes, not only while opening.
+        if (!mAdmissionController.admitExport(callingPackage)) {
+            record(route, ProviderMetrics.OP_EXPORT, callingPackage, ProviderMetrics.OUTCOME_THROTTLED, startNanos, checkedNanos, 0);
+            throw new FileNotFoundException("too many exports of " + callingPackage);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            e.printStackTrace();
+            mAdmissionController.releaseExport(callingPackage);
+            throw new FileNotFoundException("failed to create pipe: " + e.getMessage());
+        }
+        try {
+            ProviderExecutors.export().execute(new Runnable() {
+                @Override
+                public void run() {
+                    // the descriptor is owned and closed by pipe[1], not by the stream.
+                    OutputStream out = new PipeOutputStream(pipe[1].getFileDescriptor(), EXPORT_STALL_TIMEOUT);
+                    RowSink sink = RowSinks.create(format, out);
+                    int outcome = ProviderMetrics.OUTCOME_ERROR;
+                    try {
+                        route.getAdapter().export(projection, selection, selectionArgs, sortOrder, sink);
+                        outcome = sink.getRowCount() > 0 ? ProviderMetrics.OUTCOME_OK : ProviderMetrics.OUTCOME_EMPTY;
+                        pipe[1].close();
+                    } catch (Exception e) {
+                        // reader closing early is reported as IOException of write, e.g. EPIPE,
+                        // and a reader not reading as InterruptedIOException after stall timeout.
+                        Log.d(TAG, "openExport---failed: " + e);
+                        closeWithError(pipe[1], e.toString());
+                    } finally {
+                        mAdmissionController.releaseExport(callingPackage);
+                        record(route, ProviderMetrics.OP_EXPORT, callingPackage, outcome, startNanos, checkedNanos, sink.getRowCount());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mAdmissionController.releaseExport(callingPackage);
+            closeQuietly(pipe[0]);
+            closeQuietly(pipe[1]);
+            record(route, ProviderMetrics.OP_EXPORT, callingPackage, ProviderMetrics.OUTCOME_THROTTLED, startNanos, checkedNanos, 0);
+            throw new FileNotFoundException("too many exports queued");
+        }
+        ProviderProxy.getInstance().notifyOnRead(uri);
+        return pipe[0];
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor fileDescriptor) {
+        try {
+            fileDescriptor.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeWithError(ParcelFileDescriptor fileDescriptor, String message) {
+        try {
+            fileDescriptor.closeWithError(message);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * record metrics of an operation ending now.
+     * @param route route, null if not matched
+     * @param operation ProviderMetrics.OP_*
+     * @param callingPackage callingPackage
+     * @param outcome ProviderMetrics.OUTCOME_*
+     * @param startNanos when operation started
+     * @param checkedNanos when permission check finished
+     * @param resultSize rows returned or changed
+     */
+    private void record(Route route, int operation, String callingPackage, int outcome, long startNanos, long checkedNanos, long resultSize) {
+        if (!mMetrics.isEnabled()) return;
+        long endNanos = System.nanoTime();
+        mMetrics.record(route != null ? route.code : UrisMatcher.NO_MATCH, operation, callingPackage, outcome,
+                checkedNanos - startNanos, endNanos - checkedNanos, endNanos - startNanos, resultSize);
+    }
+
+    /**
+     * dump metrics, notification and listener dispatch counters.
+     * @param writer writer
+     */
+    public void dump(PrintWriter writer) {
+        ProviderStartup startup = mStartup;
+        if (startup != null) {
+            startup.dump(writer);
+        }
+        mMetrics.dump(writer);
+        mAdmissionController.dump(writer);
+        QueryCache queryCache = mQueryCache;
+        if (queryCache != null) {
+            queryCache.dump(writer);
+        }
+        writer.println("ChangeNotifier: raw=" + mChangeNotifier.getRawCount() + " delivered=" + mChangeNotifier.getDeliveredCount());
+        ProviderProxy providerProxy = ProviderProxy.getInstance();
+        writer.println("ProviderProxy: async=" + providerProxy.isAsyncDispatch() + " dispatched=" + providerProxy.getDispatchedCount()
+                + " dropped=" + providerProxy.getDroppedCount());
+    }
+
+    /**
+     * insert values in one batch, authorized once and notified once.
+     * @param uri uri
+     * @param values values
+     * @return count inserted
+     */
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        Log.d(TAG, "bulkInsert---uri: " + uri + ",count: " + values.length);
+        beginBatch();
+        try {
+            return write(ProviderMetrics.OP_BULK_INSERT, uri, values, null, null, null);
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Begin a batch on calling thread, writes until {@link #endBatch()} are authorized once
+     * per operation and scope, persisted by adapters in one transaction and notified once per uri.
+     * Batches can be nested, the outermost one takes effect.
+     */
+    public void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth ++;
+    }
+
+    /**
+     * End the batch begun by {@link #beginBatch()}.
+     */
+    public void endBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) return;
+        if (-- batch.depth > 0) return;
+        mBatch.remove();
+        for (ContentAdapter contentAdapter : batch.adapters) {
+            try {
+                contentAdapter.endBatch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            // writes of batch may only become visible now.
+            invalidateQueryCache(contentAdapter);
+        }
+        for (Route route : batch.changedRoutes) {
+            mChangeNotifier.notifyChange(route.notifyUris);
+        }
+    }
+
+    /**
+     * check write permission of calling package, only checked once per operation and scope in a batch.
+     * @param flag FLAG_CONTENT_*
+     * @param callingPackage callingPackage
+     * @param contentAdapter contentAdapter
+     * @return isValid
+     */
+    private boolean checkWrite(byte flag, String callingPackage, ContentAdapter contentAdapter) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return mPermissionChecker.check(flag, callingPackage, contentAdapter.writeScope());
+        }
+        String key = flag + ":" + contentAdapter.writeScope();
+        Boolean granted = batch.authorized.get(key);
+        if (granted == null) {
+            granted = mPermissionChecker.check(flag, callingPackage, contentAdapter.writeScope());
+            batch.authorized.put(key, granted);
+        }
+        if (granted && batch.adapters.add(contentAdapter)) {
+            contentAdapter.beginBatch();
+        }
+        return granted;
+    }
+
+    private void invalidateQueryCache(ContentAdapter contentAdapter) {
+        QueryCache queryCache = mQueryCache;
+        if (queryCache != null) {
+            queryCache.invalidate(contentAdapter);
+        }
+    }
+
+    private void notifyOnWrite(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch == null || batch.writtenUris.add(uri)) {
+            ProviderProxy.getInstance().notifyOnWrite(uri);
+        }
+    }
+
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        Log.d(TAG, "insert---uri: " + uri);
+        return write(ProviderMetrics.OP_INSERT, uri, null, values, null, null) > 0 ? uri : null;
+    }
+
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        Log.d(TAG, "update---uri: " + uri);
+        return write(ProviderMetrics.OP_UPDATE, uri, null, values, selection, selectionArgs);
     }
 
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
         Log.d(TAG, "delete---uri: " + uri);
-        ContentAdapter contentAdapter = getContentAdapter(uri);
-        if (contentAdapter != null && mPermissionChecker.checkDelete(getCallingPackage(), contentAdapter.writeScope())) {
-            ProviderProxy.getInstance().notifyOnWrite(uri);
-            int deleteCount = contentAdapter.delete(selection, selectionArgs);
-            if (deleteCount > 0) {
-                notifyContentChange(uri);
-                return deleteCount;
-            }
+        return write(ProviderMetrics.OP_DELETE, uri, null, null, selection, selectionArgs);
+    }
+
+    /**
+     * resolve, authorize, dispatch, notify and record a write.
+     * @param operation ProviderMetrics.OP_*
+     * @return count of rows changed, 1 for a successful insert
+     */
+    private int write(int operation, Uri uri, ContentValues[] bulkValues, ContentValues values, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        String callingPackage = getCallingPackage();
+        Route route = resolve(uri);
+        if (route == null) {
+            record(null, operation, callingPackage, ProviderMetrics.OUTCOME_NO_ROUTE, startNanos, startNanos, 0);
+            return 0;
+        }
+        if (!awaitAuth(callingPackage) || !mAdmissionController.admit(callingPackage)) {
+            record(route, operation, callingPackage, ProviderMetrics.OUTCOME_THROTTLED, startNanos, startNanos, 0);
+            return 0;
+        }
+        try {
+            return write(operation, route, uri, bulkValues, values, selection, selectionArgs, callingPackage, startNanos);
+        } finally {
+            mAdmissionController.release();
         }
-        return 0;
     }
 
-    private void notifyContentChange(Uri uri) {
-        int code = mUriMatcher.match(uri);
-        List<Uri> uriList = mUriMatcher.getUriListByCode(code);
-        if (uriList != null) {
-            for (Uri u : uriList) {
-                mContentProvider.getContext().getContentResolver().notifyChange(u, null);
+    private int write(int operation, Route route, Uri uri, ContentValues[] bulkValues, ContentValues values, String selection,
+                      String[] selectionArgs, String callingPackage, long startNanos) {
+        byte flag;
+        switch (operation) {
+            case ProviderMetrics.OP_UPDATE: flag = PermissionChecker.FLAG_CONTENT_UPDATE; break;
+            case ProviderMetrics.OP_DELETE: flag = PermissionChecker.FLAG_CONTENT_DELETE; break;
+            default: flag = PermissionChecker.FLAG_CONTENT_INSERT; break;
+        }
+        boolean granted = checkWrite(flag, callingPackage, route.getAdapter());
+        long checkedNanos = System.nanoTime();
+        if (!granted) {
+            record(route, operation, callingPackage, ProviderMetrics.OUTCOME_DENIED, startNanos, checkedNanos, 0);
+            return 0;
+        }
+        notifyOnWrite(uri);
+        int outcome = ProviderMetrics.OUTCOME_ERROR;
+        int count = 0;
+        try {
+            switch (operation) {
+                case ProviderMetrics.OP_INSERT: count = route.getAdapter().insert(values) ? 1 : 0; break;
+                case ProviderMetrics.OP_BULK_INSERT: count = route.getAdapter().bulkInsert(bulkValues); break;
+                case ProviderMetrics.OP_UPDATE: count = route.getAdapter().update(values, selection, selectionArgs); break;
+                case ProviderMetrics.OP_DELETE: count = route.getAdapter().delete(selection, selectionArgs); break;
+                default: break;
+            }
+            if (count > 0) {
+                notifyContentChange(route);
             }
+            outcome = count > 0 ? ProviderMetrics.OUTCOME_OK : ProviderMetrics.OUTCOME_EMPTY;
+            return count;
+        } finally {
+            // after the write is applied, also if it failed halfway.
+            invalidateQueryCache(route.getAdapter());
+            record(route, operation, callingPackage, outcome, startNanos, checkedNanos, count);
+        }
+    }
+
+    /**
+     * flush data pending in memory of all adapters created.
+     */
+    public void flush() {
+        for (Route route : getRouteTable()) {
+            ContentAdapter contentAdapter = route != null ? route.peekAdapter() : null;
+            if (contentAdapter != null) contentAdapter.flush();
+        }
+    }
+
+    /**
+     * shut down all adapters created, pending data is flushed.
+     */
+    public void shutdown() {
+        for (Route route : getRouteTable()) {
+            ContentAdapter contentAdapter = route != null ? route.peekAdapter() : null;
+            if (contentAdapter != null) contentAdapter.shutdown();
+        }
+        mChangeNotifier.shutdown();
+    }
+
+    private void notifyContentChange(Route route) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changedRoutes.add(route);
+            return;
         }
+        mChangeNotifier.notifyChange(route.notifyUris);
     }
 }
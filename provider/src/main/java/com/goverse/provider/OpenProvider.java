@@ -1,17 +1,27 @@
 package com.goverse.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.pm.ProviderInfo;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.goverse.provider.adapter.open.OpenDataAdapter;
 import com.goverse.provider.proxy.ProviderProxy;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 
 public class OpenProvider extends ContentProvider {
 
@@ -27,6 +37,11 @@ public class OpenProvider extends ContentProvider {
      */
     private ContentProcessor mContentProcessor;
 
+    /**
+     * phases of startup, created with provider instance.
+     */
+    private final ProviderStartup mStartup = new ProviderStartup();
+
     /**
      * URL_MATCHER
      */
@@ -43,16 +58,29 @@ public class OpenProvider extends ContentProvider {
 
     @Override
     public void attachInfo(Context context, ProviderInfo info) {
+        mStartup.begin(ProviderStartup.PHASE_ATTACH);
         ProviderProxy.getInstance().setContentProvider(this);
         ProviderProxy.getInstance().notifyOnAttachInfo(info);
-        mContentProcessor.add(MATCH_OPEN, new OpenDataAdapter(this));
+        // onCreate is called in it.
         super.attachInfo(context, info);
+        mStartup.end(ProviderStartup.PHASE_ATTACH);
     }
 
     @Override
     public boolean onCreate() {
+        mStartup.begin(ProviderStartup.PHASE_CREATE);
         ProviderProxy.getInstance().notifyOnCreate();
         mContentProcessor = new ContentProcessor(this, URL_MATCHER);
+        mContentProcessor.enableQueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_CELLS);
+        // adapters are created on first request or by prewarm, not on main thread.
+        mContentProcessor.add(MATCH_OPEN, new ContentAdapter.Factory() {
+            @Override
+            public ContentAdapter create() {
+                return new OpenDataAdapter(OpenProvider.this);
+            }
+        });
+        mContentProcessor.prewarm(mStartup);
+        mStartup.end(ProviderStartup.PHASE_CREATE);
         return true;
     }
 
@@ -86,6 +114,26 @@ public class OpenProvider extends ContentProvider {
     }
 
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+
+        Log.d(TAG, "bulkInsert---uri: " + uri + ", count: " + values.length);
+        return mContentProcessor.bulkInsert(uri, values);
+    }
+
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+
+        Log.d(TAG, "applyBatch---count: " + operations.size());
+        mContentProcessor.beginBatch();
+        try {
+            return super.applyBatch(operations);
+        } finally {
+            mContentProcessor.endBatch();
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
 
@@ -93,4 +141,78 @@ public class OpenProvider extends ContentProvider {
         return mContentProcessor.delete(uri, selection, selectionArgs);
     }
 
+    /**
+     * stream rows of uri in format of query parameter, see {@link ContentProcessor#openExport(Uri, String)}.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+
+        Log.d(TAG, "openFile---uri: " + uri + ", mode: " + mode);
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("export is read only, mode: " + mode);
+        }
+        return mContentProcessor.openExport(uri, null);
+    }
+
+    /**
+     * stream rows of uri in format of mimeTypeFilter, see {@link ContentProcessor#openExport(Uri, String)}.
+     */
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter, @Nullable Bundle opts) throws FileNotFoundException {
+
+        Log.d(TAG, "openTypedAssetFile---uri: " + uri + ", mimeTypeFilter: " + mimeTypeFilter);
+        ParcelFileDescriptor fileDescriptor = mContentProcessor.openExport(uri, mimeTypeFilter);
+        return new AssetFileDescriptor(fileDescriptor, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * read rows into a Bundle without a cursor, see {@link ContentProcessor#call(String, String, Bundle)}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+
+        Log.d(TAG, "call---method: " + method + ", arg: " + arg);
+        Bundle result = mContentProcessor.call(method, arg, extras);
+        return result != null ? result : super.call(method, arg, extras);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // process is likely to be killed in background, persist pending data.
+        if (level >= TRIM_MEMORY_BACKGROUND && mContentProcessor != null) {
+            mContentProcessor.flush();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mContentProcessor != null) {
+            mContentProcessor.flush();
+        }
+    }
+
+    /**
+     * print metrics by adb shell dumpsys activity provider <component>
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        if (mContentProcessor != null) {
+            mContentProcessor.dump(writer);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (mContentProcessor != null) {
+            mContentProcessor.shutdown();
+        }
+        super.shutdown();
+    }
+
 }
@@ -0,0 +1,119 @@
+package com.goverse.provider;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Phases of provider startup, their timing and readiness gates.
+ * Main thread runs {@link #PHASE_ATTACH} and {@link #PHASE_CREATE}, background thread runs
+ * {@link #PHASE_AUTH} then {@link #PHASE_ADAPTERS}, see {@link ContentProcessor#prewarm(ProviderStartup)}.
+ * Requests arriving early wait in {@link #await(int, long)} for the phase they need only.
+ */
+public class ProviderStartup {
+
+    private static final String TAG = ProviderStartup.class.getSimpleName();
+
+    /**
+     * attachInfo of provider, including onCreate.
+     */
+    public static final int PHASE_ATTACH = 0;
+
+    /**
+     * onCreate of provider.
+     */
+    public static final int PHASE_CREATE = 1;
+
+    /**
+     * caller list loaded and permission index compiled.
+     */
+    public static final int PHASE_AUTH = 2;
+
+    /**
+     * all adapters created and prewarmed.
+     */
+    public static final int PHASE_ADAPTERS = 3;
+
+    static final String[] PHASE_NAMES = {"attach", "create", "auth", "adapters"};
+
+    private final long mOriginMillis = SystemClock.elapsedRealtime();
+
+    /**
+     * begin and end of phases in millis since {@link #mOriginMillis}, -1 if not reached.
+     */
+    private final AtomicLongArray mBegins = new AtomicLongArray(PHASE_NAMES.length);
+
+    private final AtomicLongArray mEnds = new AtomicLongArray(PHASE_NAMES.length);
+
+    private final CountDownLatch[] mGates = new CountDownLatch[PHASE_NAMES.length];
+
+    public ProviderStartup() {
+        for (int i = 0; i < PHASE_NAMES.length; i ++) {
+            mBegins.set(i, -1);
+            mEnds.set(i, -1);
+            mGates[i] = new CountDownLatch(1);
+        }
+    }
+
+    public void begin(int phase) {
+        mBegins.set(phase, SystemClock.elapsedRealtime() - mOriginMillis);
+    }
+
+    /**
+     * end phase and open its gate, also if the phase failed, waiters go on with what is available.
+     * @param phase PHASE_*
+     */
+    public void end(int phase) {
+        long end = SystemClock.elapsedRealtime() - mOriginMillis;
+        if (!mEnds.compareAndSet(phase, -1, end)) return;
+        mGates[phase].countDown();
+        Log.d(TAG, "end---" + PHASE_NAMES[phase] + ", cost: " + getDuration(phase) + ", since start: " + end);
+    }
+
+    public boolean isReady(int phase) {
+        return mEnds.get(phase) >= 0;
+    }
+
+    /**
+     * wait until phase ended.
+     * @param phase PHASE_*
+     * @param timeoutMillis max millis to wait
+     * @return true if ready, false if timed out or interrupted
+     */
+    public boolean await(int phase, long timeoutMillis) {
+        if (isReady(phase)) return true;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            boolean ready = mGates[phase].await(timeoutMillis, TimeUnit.MILLISECONDS);
+            Log.d(TAG, "await---" + PHASE_NAMES[phase] + ", ready: " + ready + ", waited: " + (SystemClock.elapsedRealtime() - start));
+            return ready;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param phase PHASE_*
+     * @return millis of phase, -1 if not ended
+     */
+    public long getDuration(int phase) {
+        long begin = mBegins.get(phase);
+        long end = mEnds.get(phase);
+        return begin >= 0 && end >= 0 ? end - begin : -1;
+    }
+
+    /**
+     * print phases, millis since provider instance created.
+     * @param writer writer
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("ProviderStartup:");
+        for (int i = 0; i < PHASE_NAMES.length; i ++) {
+            writer.println("  " + PHASE_NAMES[i] + ": begin=" + mBegins.get(i) + " end=" + mEnds.get(i) + " cost=" + getDuration(i));
+        }
+    }
+}
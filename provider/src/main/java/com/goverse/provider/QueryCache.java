@@ -0,0 +1,258 @@
+package com.goverse.provider;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import com.goverse.provider.adapter.RecordCursor;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of query results by route, projection, selection, args and sortOrder,
+ * for adapters returning a positive {@link ContentAdapter#queryCacheTtl()}.
+ * Results are kept as read-only {@link RecordCursor} cells shared by every hit.
+ * Each adapter has a generation increased by writes routed to it, a result is only
+ * served while the generation it was read at is current, and until its ttl expires.
+ * Least recently used results are evicted beyond max entries or max cells.
+ */
+public class QueryCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    public static final int DEFAULT_MAX_CELLS = 16 * 1024;
+
+    private final int mMaxEntries;
+
+    private final int mMaxCells;
+
+    /**
+     * results in access order, guarded by itself.
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int mCells;
+
+    private final ConcurrentHashMap<ContentAdapter, AtomicLong> mGenerations = new ConcurrentHashMap<>();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    private final AtomicLong mInvalidationCount = new AtomicLong();
+
+    private static class Entry {
+        final ContentAdapter adapter;
+        final long generation;
+        final long expireAt;
+        final RecordCursor cursor;
+
+        Entry(ContentAdapter adapter, long generation, long expireAt, RecordCursor cursor) {
+            this.adapter = adapter;
+            this.generation = generation;
+            this.expireAt = expireAt;
+            this.cursor = cursor;
+        }
+    }
+
+    public QueryCache(int maxEntries, int maxCells) {
+        mMaxEntries = Math.max(1, maxEntries);
+        mMaxCells = Math.max(1, maxCells);
+    }
+
+    /**
+     * build key of query, every string is length prefixed and null is marked,
+     * so that different queries never have the same key.
+     * @return key
+     */
+    static String key(Route route, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(route.code).append(';');
+        appendArray(sb, projection);
+        appendString(sb, selection);
+        appendArray(sb, selectionArgs);
+        appendString(sb, sortOrder);
+        return sb.toString();
+    }
+
+    private static void appendArray(StringBuilder sb, String[] strings) {
+        if (strings == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append(strings.length).append('[');
+        for (String string : strings) appendString(sb, string);
+    }
+
+    private static void appendString(StringBuilder sb, String string) {
+        if (string == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append(string.length()).append(':').append(string);
+    }
+
+    private AtomicLong getGeneration(ContentAdapter contentAdapter) {
+        AtomicLong generation = mGenerations.get(contentAdapter);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = mGenerations.putIfAbsent(contentAdapter, created);
+            if (generation == null) generation = created;
+        }
+        return generation;
+    }
+
+    /**
+     * current generation of adapter, read before querying the adapter and passed to {@link #put}.
+     * @param contentAdapter contentAdapter
+     * @return generation
+     */
+    public long generation(ContentAdapter contentAdapter) {
+        return getGeneration(contentAdapter).get();
+    }
+
+    /**
+     * get cached result.
+     * @param key key
+     * @param contentAdapter adapter of route
+     * @return cursor sharing cached cells, null if missed
+     */
+    public Cursor get(String key, ContentAdapter contentAdapter) {
+        long generation = generation(contentAdapter);
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(key);
+            if (entry != null && (entry.generation != generation || SystemClock.elapsedRealtime() >= entry.expireAt)) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                mMissCount.incrementAndGet();
+                return null;
+            }
+            mHitCount.incrementAndGet();
+            return entry.cursor.readOnlyCopy();
+        }
+    }
+
+    /**
+     * cache result read from adapter at generation, unless the adapter has been written since.
+     * The cursor is consumed and a cursor of the same rows is returned in place of it.
+     * @param key key
+     * @param contentAdapter adapter of route
+     * @param generation generation read before querying
+     * @param ttl millis the result stays valid
+     * @param cursor result, may be null
+     * @return cursor to return to caller
+     */
+    public Cursor put(String key, ContentAdapter contentAdapter, long generation, long ttl, Cursor cursor) {
+        if (cursor == null) return null;
+        RecordCursor recordCursor = toRecordCursor(cursor);
+        if (recordCursor == null) return cursor;
+        Cursor result = recordCursor.readOnlyCopy();
+        if (generation != generation(contentAdapter)) return result;
+        synchronized (mEntries) {
+            remove(key);
+            mEntries.put(key, new Entry(contentAdapter, generation, SystemClock.elapsedRealtime() + ttl, recordCursor));
+            mCells += recordCursor.getCellCount();
+            Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+            while ((mEntries.size() > mMaxEntries || mCells > mMaxCells) && iterator.hasNext()) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                mCells -= eldest.cursor.getCellCount();
+                mEvictionCount.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * copy rows of cursor into cells, the cursor is closed if copied.
+     * @param cursor cursor
+     * @return cursor of cells, null if cursor is too large to cache
+     */
+    private RecordCursor toRecordCursor(Cursor cursor) {
+        if (cursor instanceof RecordCursor) {
+            RecordCursor recordCursor = (RecordCursor) cursor;
+            return recordCursor.getCellCount() <= mMaxCells / 4 ? recordCursor : null;
+        }
+        int columnCount = cursor.getColumnCount();
+        int count = cursor.getCount();
+        if ((long) count * columnCount > mMaxCells / 4) return null;
+        RecordCursor recordCursor = new RecordCursor(cursor.getColumnNames(), count);
+        try {
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                recordCursor.newRow();
+                for (int i = 0; i < columnCount; i ++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER: recordCursor.putLong(i, cursor.getLong(i)); break;
+                        case Cursor.FIELD_TYPE_FLOAT: recordCursor.putDouble(i, cursor.getDouble(i)); break;
+                        case Cursor.FIELD_TYPE_NULL: recordCursor.putNull(i); break;
+                        // blobs are not expected from adapters, kept as strings.
+                        default: recordCursor.putString(i, cursor.getString(i)); break;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return recordCursor;
+    }
+
+    /**
+     * invalidate results of adapter, called after a write is applied to it.
+     * @param contentAdapter contentAdapter
+     */
+    public void invalidate(ContentAdapter contentAdapter) {
+        getGeneration(contentAdapter).incrementAndGet();
+        mInvalidationCount.incrementAndGet();
+        synchronized (mEntries) {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.adapter == contentAdapter) {
+                    iterator.remove();
+                    mCells -= entry.cursor.getCellCount();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+            mCells = 0;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) mCells -= entry.cursor.getCellCount();
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public void dump(PrintWriter writer) {
+        long hits = mHitCount.get();
+        long misses = mMissCount.get();
+        int entries;
+        int cells;
+        synchronized (mEntries) {
+            entries = mEntries.size();
+            cells = mCells;
+        }
+        writer.println("QueryCache: entries=" + entries + " cells=" + cells + " hits=" + hits + " misses=" + misses
+                + " hitRate=" + (hits + misses > 0 ? hits * 100 / (hits + misses) : 0) + "%"
+                + " evictions=" + mEvictionCount.get() + " invalidations=" + mInvalidationCount.get());
+    }
+}
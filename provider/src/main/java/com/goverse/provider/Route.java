@@ -0,0 +1,58 @@
+package com.goverse.provider;
+
+import android.net.Uri;
+import android.util.Log;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolved route of a uri: its match code, the {@link ContentAdapter} serving it
+ * and the uris to notify after it is written. Resolved once per request.
+ * The adapter is created by its {@link ContentAdapter.Factory} on first use,
+ * requests of other routes never wait for it.
+ */
+public final class Route {
+
+    private static final String TAG = Route.class.getSimpleName();
+
+    public final int code;
+
+    public final List<Uri> notifyUris;
+
+    private final ContentAdapter.Factory mFactory;
+
+    private volatile ContentAdapter mAdapter;
+
+    Route(int code, ContentAdapter.Factory factory, List<Uri> notifyUris) {
+        this.code = code;
+        this.notifyUris = notifyUris != null ? Collections.unmodifiableList(notifyUris) : Collections.<Uri>emptyList();
+        mFactory = factory;
+    }
+
+    /**
+     * get adapter, created on the first call while concurrent callers of this route wait for it.
+     * @return adapter
+     */
+    public ContentAdapter getAdapter() {
+        ContentAdapter adapter = mAdapter;
+        if (adapter == null) {
+            synchronized (this) {
+                if (mAdapter == null) {
+                    long start = System.nanoTime();
+                    mAdapter = mFactory.create();
+                    Log.d(TAG, "getAdapter---created " + mAdapter.getClass().getSimpleName() + " of code " + code
+                            + ", cost(us): " + (System.nanoTime() - start) / 1000);
+                }
+                adapter = mAdapter;
+            }
+        }
+        return adapter;
+    }
+
+    /**
+     * @return adapter, null if not created yet
+     */
+    public ContentAdapter peekAdapter() {
+        return mAdapter;
+    }
+}
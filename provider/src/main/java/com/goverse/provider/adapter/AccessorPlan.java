@@ -0,0 +1,299 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentValues;
+import com.google.gson.TypeAdapter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accessor plan of a data class, resolved once per class and cached:
+ * public fields of type long, int, double, boolean and String in declared order,
+ * their column names, typed getters and setters, and projection to index mapping,
+ * so that building cursor and applying ContentValues need no reflective lookup.
+ * Used as {@link RecordCodec} of data class without generated codec.
+ * @param <T> data class
+ */
+public class AccessorPlan<T> implements RecordCodec<T> {
+
+    public static final int TYPE_LONG = 1;
+
+    public static final int TYPE_INT = 2;
+
+    public static final int TYPE_DOUBLE = 3;
+
+    public static final int TYPE_BOOLEAN = 4;
+
+    public static final int TYPE_STRING = 5;
+
+    private static final ConcurrentHashMap<Class<?>, AccessorPlan<?>> sPlans = new ConcurrentHashMap<>();
+
+    /**
+     * Projection resolved lately, most callers query with the same projection.
+     */
+    private static class ResolvedProjection {
+        final String[] projection;
+        final int[] indexes;
+
+        ResolvedProjection(String[] projection, int[] indexes) {
+            this.projection = projection;
+            this.indexes = indexes;
+        }
+    }
+
+    private final Class<T> mClass;
+
+    private final Field[] mFields;
+
+    private final String[] mColumns;
+
+    private final int[] mTypes;
+
+    private final Map<String, Integer> mIndexes;
+
+    private volatile ResolvedProjection mResolvedProjection;
+
+    /**
+     * get cached plan of class.
+     * @param cls data class
+     * @return plan
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AccessorPlan<T> of(Class<T> cls) {
+        AccessorPlan<?> plan = sPlans.get(cls);
+        if (plan == null) {
+            plan = new AccessorPlan<>(cls);
+            AccessorPlan<?> previous = sPlans.putIfAbsent(cls, plan);
+            if (previous != null) plan = previous;
+        }
+        return (AccessorPlan<T>) plan;
+    }
+
+    private AccessorPlan(Class<T> cls) {
+        mClass = cls;
+        List<Field> fields = new ArrayList<>();
+        List<Integer> types = new ArrayList<>();
+        for (Field field : cls.getFields()) {
+            if (Modifier.isStatic(field.getModifiers())) continue;
+            int type = typeOf(field.getType());
+            if (type == 0) continue;
+            field.setAccessible(true);
+            fields.add(field);
+            types.add(type);
+        }
+        mFields = fields.toArray(new Field[0]);
+        mColumns = new String[mFields.length];
+        mTypes = new int[mFields.length];
+        mIndexes = new HashMap<>();
+        for (int i = 0; i < mFields.length; i ++) {
+            mColumns[i] = mFields[i].getName();
+            mTypes[i] = types.get(i);
+            mIndexes.put(mColumns[i], i);
+        }
+    }
+
+    private static int typeOf(Class<?> type) {
+        if (type == Long.TYPE) return TYPE_LONG;
+        if (type == Integer.TYPE) return TYPE_INT;
+        if (type == Double.TYPE) return TYPE_DOUBLE;
+        if (type == Boolean.TYPE) return TYPE_BOOLEAN;
+        if (type == String.class) return TYPE_STRING;
+        return 0;
+    }
+
+    public Class<T> getDataClass() {
+        return mClass;
+    }
+
+    /**
+     * get all column names, the array is shared and must not be modified.
+     * @return columns
+     */
+    @Override
+    public String[] getColumns() {
+        return mColumns;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumns.length;
+    }
+
+    @Override
+    public int getType(int index) {
+        return mTypes[index];
+    }
+
+    /**
+     * get index of column.
+     * @param column column name
+     * @return index, -1 if not found
+     */
+    @Override
+    public int indexOf(String column) {
+        Integer index = mIndexes.get(column);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * resolve projection to column indexes, -1 for unknown column.
+     * The array is shared and must not be modified.
+     * @param projection projection
+     * @return indexes
+     */
+    @Override
+    public int[] resolve(String[] projection) {
+        ResolvedProjection resolved = mResolvedProjection;
+        if (resolved != null && Arrays.equals(resolved.projection, projection)) {
+            return resolved.indexes;
+        }
+        int[] indexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i ++) {
+            indexes[i] = indexOf(projection[i]);
+        }
+        mResolvedProjection = new ResolvedProjection(projection.clone(), indexes);
+        return indexes;
+    }
+
+    @Override
+    public long getLong(T t, int index) {
+        try {
+            switch (mTypes[index]) {
+                case TYPE_LONG: return mFields[index].getLong(t);
+                case TYPE_INT: return mFields[index].getInt(t);
+                case TYPE_DOUBLE: return (long) mFields[index].getDouble(t);
+                case TYPE_BOOLEAN: return mFields[index].getBoolean(t) ? 1 : 0;
+                default: return 0;
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public double getDouble(T t, int index) {
+        try {
+            if (mTypes[index] == TYPE_DOUBLE) return mFields[index].getDouble(t);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return getLong(t, index);
+    }
+
+    @Override
+    public String getString(T t, int index) {
+        try {
+            if (mTypes[index] == TYPE_STRING) return (String) mFields[index].get(t);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        Object value = get(t, index);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * get boxed value of column.
+     * @param t object
+     * @param index column index, null returned if -1
+     * @return value
+     */
+    @Override
+    public Object get(T t, int index) {
+        if (index < 0 || t == null) return null;
+        try {
+            switch (mTypes[index]) {
+                case TYPE_LONG: return mFields[index].getLong(t);
+                case TYPE_INT: return mFields[index].getInt(t);
+                case TYPE_DOUBLE: return mFields[index].getDouble(t);
+                case TYPE_BOOLEAN: return mFields[index].getBoolean(t);
+                case TYPE_STRING: return mFields[index].get(t);
+                default: return null;
+            }
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * set fields of object by ContentValues, keys not matching any column are ignored.
+     * @param t object
+     * @param contentValues values
+     */
+    @Override
+    public void apply(T t, ContentValues contentValues) {
+        for (Entry<String, Object> entry : contentValues.valueSet()) {
+            String key = entry.getKey();
+            int index = indexOf(key);
+            if (index < 0) continue;
+            Field field = mFields[index];
+            try {
+                switch (mTypes[index]) {
+                    case TYPE_LONG:
+                        Long asLong = contentValues.getAsLong(key);
+                        if (asLong != null) field.setLong(t, asLong);
+                        break;
+                    case TYPE_INT:
+                        Integer asInteger = contentValues.getAsInteger(key);
+                        if (asInteger != null) field.setInt(t, asInteger);
+                        break;
+                    case TYPE_DOUBLE:
+                        Double asDouble = contentValues.getAsDouble(key);
+                        if (asDouble != null) field.setDouble(t, asDouble);
+                        break;
+                    case TYPE_BOOLEAN:
+                        Boolean asBoolean = contentValues.getAsBoolean(key);
+                        if (asBoolean != null) field.setBoolean(t, asBoolean);
+                        break;
+                    case TYPE_STRING:
+                        field.set(t, Objects.toString(contentValues.getAsString(key), ""));
+                        break;
+                    default:
+                        break;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void writeRow(T t, int[] indexes, RowWriter writer) {
+        int count = indexes != null ? indexes.length : mColumns.length;
+        for (int i = 0; i < count; i ++) {
+            int index = indexes != null ? indexes[i] : i;
+            if (index < 0) {
+                writer.putNull(i);
+                continue;
+            }
+            switch (mTypes[index]) {
+                case TYPE_DOUBLE:
+                    writer.putDouble(i, getDouble(t, index));
+                    break;
+                case TYPE_STRING:
+                    String value = getString(t, index);
+                    if (value != null) {
+                        writer.putString(i, value);
+                    } else {
+                        writer.putNull(i);
+                    }
+                    break;
+                default:
+                    writer.putLong(i, getLong(t, index));
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public TypeAdapter<T> getTypeAdapter() {
+        return null;
+    }
+}
@@ -1,17 +1,363 @@
 package com.goverse.provider.adapter;
 
 import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.goverse.provider.ContentAdapter;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  *  Base database Adapter object which is able
  *  to provide data by database.
+ *  Database is opened in WAL journal mode, so that queries run on their own
+ *  connections concurrently with the single writer. SQL of insert, update and delete
+ *  is built once per shape of columns and selection, and compiled statements are reused
+ *  from the prepared statement cache of each connection, as well as queries of the same shape.
+ *  Queries are built by a strict {@link SQLiteQueryBuilder}, projection is limited to columns of
+ *  {@link #tableName()}, so that expressions or subqueries of callers can not read other tables.
+ *  Writes between {@link #beginBatch()} and {@link #endBatch()} run in one transaction.
  */
 @SuppressWarnings("JavadocReference")
 public abstract class DBContentAdapter extends ContentAdapter {
 
+    /**
+     * max shapes of write SQL cached.
+     */
+    private static final int MAX_CACHED_SQL = 64;
+
+    /**
+     * size of prepared statement cache of each connection.
+     */
+    private static final int MAX_SQL_CACHE_SIZE = 50;
+
+    private volatile SQLiteOpenHelper mOpenHelper;
+
+    /**
+     * SQL of writes by shape. Statements are not cached here since a statement is bound
+     * to one connection and can not be shared by threads, SQLiteDatabase caches them per connection.
+     */
+    private final ConcurrentHashMap<String, String> mSqlCache = new ConcurrentHashMap<>();
+
+    /**
+     * whether a batch transaction is open on current thread.
+     */
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<>();
+
+    /**
+     * columns of {@link #tableName()} mapped to themselves, loaded on first query.
+     */
+    private volatile Map<String, String> mProjectionMap;
+
     public DBContentAdapter(ContentProvider contentProvider) {
         super(contentProvider);
     }
+
+    /**
+     * table served by this adapter.
+     * @return table name
+     */
+    protected abstract String tableName();
+
+    /**
+     * create tables when database is created.
+     * @param db database
+     */
+    protected abstract void onCreateDatabase(SQLiteDatabase db);
+
+    /**
+     * upgrade database, drops and recreates table by default.
+     * @param db database
+     * @param oldVersion oldVersion
+     * @param newVersion newVersion
+     */
+    protected void onUpgradeDatabase(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + tableName());
+        onCreateDatabase(db);
+    }
+
+    /**
+     * database file name, null for in-memory database.
+     * @return name
+     */
+    protected String databaseName() {
+        return tableName() + ".db";
+    }
+
+    protected int databaseVersion() {
+        return 1;
+    }
+
+    /**
+     * get database, opened on first call.
+     * @return database
+     */
+    protected SQLiteDatabase getDatabase() {
+        if (mOpenHelper == null) {
+            synchronized (this) {
+                if (mOpenHelper == null) {
+                    mOpenHelper = new SQLiteOpenHelper(getContentProvider().getContext(), databaseName(), null, databaseVersion()) {
+                        @Override
+                        public void onConfigure(SQLiteDatabase db) {
+                            db.enableWriteAheadLogging();
+                            db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
+                        }
+
+                        @Override
+                        public void onCreate(SQLiteDatabase db) {
+                            onCreateDatabase(db);
+                        }
+
+                        @Override
+                        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                            onUpgradeDatabase(db, oldVersion, newVersion);
+                        }
+                    };
+                }
+            }
+        }
+        return mOpenHelper.getWritableDatabase();
+    }
+
+    /**
+     * query table, columns not in {@link #tableName()} are rejected.
+     * @throws IllegalArgumentException if projection has a column not in table
+     */
+    @Override
+    public Cursor query(@Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        SQLiteDatabase db = getDatabase();
+        Map<String, String> projectionMap = getProjectionMap(db);
+        if (projection != null) {
+            // builder passes "... AS alias" through before strict columns of Q.
+            for (String column : projection) {
+                if (!projectionMap.containsKey(column)) {
+                    throw new IllegalArgumentException("invalid column " + column + " of " + tableName());
+                }
+            }
+        }
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(tableName());
+        builder.setProjectionMap(projectionMap);
+        builder.setStrict(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            builder.setStrictColumns(true);
+            builder.setStrictGrammar(true);
+        }
+        return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    private Map<String, String> getProjectionMap(SQLiteDatabase db) {
+        Map<String, String> projectionMap = mProjectionMap;
+        if (projectionMap == null) {
+            projectionMap = new HashMap<>();
+            Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName() + ")", null);
+            try {
+                int nameIndex = cursor.getColumnIndex("name");
+                while (cursor.moveToNext()) {
+                    String column = cursor.getString(nameIndex);
+                    projectionMap.put(column, column);
+                }
+            } finally {
+                cursor.close();
+            }
+            projectionMap = Collections.unmodifiableMap(projectionMap);
+            mProjectionMap = projectionMap;
+        }
+        return projectionMap;
+    }
+
+    @Override
+    public boolean insert(@Nullable ContentValues values) {
+        if (values == null || values.size() == 0) return false;
+        String[] columns = sortedColumns(values);
+        String key = "I:" + Arrays.toString(columns);
+        String sql = mSqlCache.get(key);
+        if (sql == null) {
+            sql = cacheSql(key, insertSql(columns));
+        }
+        SQLiteStatement statement = getDatabase().compileStatement(sql);
+        try {
+            bindValues(statement, 1, columns, values);
+            return statement.executeInsert() != -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public int update(@Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        if (values == null || values.size() == 0) return 0;
+        String[] columns = sortedColumns(values);
+        String key = "U:" + Arrays.toString(columns) + ":" + selection;
+        String sql = mSqlCache.get(key);
+        if (sql == null) {
+            sql = cacheSql(key, updateSql(columns, selection));
+        }
+        SQLiteStatement statement = getDatabase().compileStatement(sql);
+        try {
+            bindValues(statement, 1, columns, values);
+            bindArgs(statement, columns.length + 1, selectionArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public int delete(@Nullable String selection, @Nullable String[] selectionArgs) {
+        String key = "D:" + selection;
+        String sql = mSqlCache.get(key);
+        if (sql == null) {
+            sql = cacheSql(key, "DELETE FROM " + tableName() + where(selection));
+        }
+        SQLiteStatement statement = getDatabase().compileStatement(sql);
+        try {
+            bindArgs(statement, 1, selectionArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * insert values in one transaction, nothing is inserted if any of them fails.
+     * @param values values
+     * @return count inserted
+     */
+    @Override
+    public int bulkInsert(@NonNull ContentValues[] values) {
+        SQLiteDatabase db = getDatabase();
+        int count = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues value : values) {
+                if (insert(value)) count ++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    /**
+     * begin a transaction on current thread, committed in {@link #endBatch()}.
+     */
+    @Override
+    public void beginBatch() {
+        if (mInBatch.get() != null) return;
+        getDatabase().beginTransactionNonExclusive();
+        mInBatch.set(Boolean.TRUE);
+    }
+
+    /**
+     * commit the transaction begun by {@link #beginBatch()},
+     * with writes succeeded in the batch.
+     */
+    @Override
+    public void endBatch() {
+        if (mInBatch.get() == null) return;
+        mInBatch.remove();
+        SQLiteDatabase db = getDatabase();
+        try {
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * close database.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        SQLiteOpenHelper openHelper = mOpenHelper;
+        if (openHelper != null) {
+            Log.d(TAG, "shutdown---close database: " + databaseName());
+            openHelper.close();
+        }
+    }
+
+    private String cacheSql(String key, String sql) {
+        if (mSqlCache.size() >= MAX_CACHED_SQL) {
+            mSqlCache.clear();
+        }
+        mSqlCache.put(key, sql);
+        return sql;
+    }
+
+    private static String[] sortedColumns(ContentValues values) {
+        String[] columns = values.keySet().toArray(new String[0]);
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    private String insertSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName()).append(" (");
+        for (int i = 0; i < columns.length; i ++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i ++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
+    private String updateSql(String[] columns, String selection) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(tableName()).append(" SET ");
+        for (int i = 0; i < columns.length; i ++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]).append("=?");
+        }
+        return sql.append(where(selection)).toString();
+    }
+
+    private static String where(String selection) {
+        return selection != null && !selection.isEmpty() ? " WHERE " + selection : "";
+    }
+
+    private static void bindValues(SQLiteStatement statement, int start, String[] columns, ContentValues values) {
+        for (int i = 0; i < columns.length; i ++) {
+            Object value = values.get(columns[i]);
+            int index = start + i;
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    private static void bindArgs(SQLiteStatement statement, int start, String[] args) {
+        if (args == null) return;
+        for (int i = 0; i < args.length; i ++) {
+            if (args[i] == null) {
+                statement.bindNull(start + i);
+            } else {
+                statement.bindString(start + i, args[i]);
+            }
+        }
+    }
 }
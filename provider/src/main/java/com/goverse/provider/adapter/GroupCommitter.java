@@ -0,0 +1,168 @@
+package com.goverse.provider.adapter;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.goverse.provider.util.ProviderExecutors;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind committer of sharedPreference, which coalesces writes of the same key
+ * and commits them in one editor on background thread, either after max delay since
+ * the first pending write or as soon as max batch of writes is reached.
+ * Pending data is lost if process is killed before committed, so that max delay
+ * bounds the window of data loss. Call {@link #flush()} to commit synchronously.
+ * Writes of a failed commit stay pending and are committed again after max delay.
+ */
+public class GroupCommitter {
+
+    private final String TAG = GroupCommitter.class.getSimpleName();
+
+    private final SharedPreferences mSharedPreferences;
+
+    private final long mMaxDelayMillis;
+
+    private final int mMaxBatch;
+
+    private final ScheduledExecutorService mExecutor = ProviderExecutors.background();
+
+    private final Object mLock = new Object();
+
+    /**
+     * serializes commits, so that a later batch never lands before an earlier one.
+     */
+    private final Object mCommitLock = new Object();
+
+    private Map<String, String> mPending = new LinkedHashMap<>();
+
+    /**
+     * writes being committed, still visible to readers until sharedPreference has them.
+     */
+    private Map<String, String> mCommitting;
+
+    private int mPendingWrites;
+
+    private boolean mScheduled;
+
+    /**
+     * commit of a full batch is submitted to run without delay.
+     */
+    private boolean mImmediate;
+
+    private final AtomicLong mWriteCount = new AtomicLong();
+
+    private final AtomicLong mCommitCount = new AtomicLong();
+
+    private final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitPending();
+        }
+    };
+
+    public GroupCommitter(SharedPreferences sharedPreferences, long maxDelayMillis, int maxBatch) {
+        mSharedPreferences = sharedPreferences;
+        mMaxDelayMillis = Math.max(0, maxDelayMillis);
+        mMaxBatch = Math.max(1, maxBatch);
+    }
+
+    /**
+     * enqueue a write of key, replacing pending value of the same key.
+     * @param key key
+     * @param value value
+     */
+    public void put(String key, String value) {
+        mWriteCount.incrementAndGet();
+        synchronized (mLock) {
+            mPending.put(key, value);
+            mPendingWrites ++;
+            if (mPendingWrites >= mMaxBatch) {
+                // a delayed commit may be scheduled, submit once more to commit the full batch now.
+                if (!mImmediate) {
+                    mImmediate = true;
+                    mScheduled = true;
+                    mExecutor.execute(mCommitRunnable);
+                }
+            } else if (!mScheduled) {
+                mScheduled = true;
+                mExecutor.schedule(mCommitRunnable, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * whether key has value not committed yet.
+     * @param key key
+     * @return hasPending
+     */
+    public boolean hasPending(String key) {
+        synchronized (mLock) {
+            return mPending.containsKey(key) || (mCommitting != null && mCommitting.containsKey(key));
+        }
+    }
+
+    /**
+     * get value not committed yet.
+     * @param key key
+     * @return pending value, null if none
+     */
+    public String getPending(String key) {
+        synchronized (mLock) {
+            if (mPending.containsKey(key)) return mPending.get(key);
+            return mCommitting != null ? mCommitting.get(key) : null;
+        }
+    }
+
+    /**
+     * commit pending writes on calling thread, returns after they are persisted.
+     */
+    public void flush() {
+        commitPending();
+    }
+
+    private void commitPending() {
+        synchronized (mCommitLock) {
+            Map<String, String> pending;
+            synchronized (mLock) {
+                mScheduled = false;
+                mImmediate = false;
+                if (mPending.isEmpty()) return;
+                pending = mPending;
+                mPending = new LinkedHashMap<>();
+                mPendingWrites = 0;
+                mCommitting = pending;
+            }
+            SharedPreferences.Editor editor = mSharedPreferences.edit();
+            for (Map.Entry<String, String> entry : pending.entrySet()) {
+                editor.putString(entry.getKey(), entry.getValue());
+            }
+            boolean res = editor.commit();
+            synchronized (mLock) {
+                mCommitting = null;
+                if (!res) {
+                    // keep failed writes pending, writes since then are newer and win.
+                    pending.putAll(mPending);
+                    mPendingWrites += pending.size() - mPending.size();
+                    mPending = pending;
+                    if (!mScheduled) {
+                        mScheduled = true;
+                        mExecutor.schedule(mCommitRunnable, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            mCommitCount.incrementAndGet();
+            Log.d(TAG, "commitPending---keys: " + pending.size() + ",res: " + res);
+        }
+    }
+
+    public long getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    public long getCommitCount() {
+        return mCommitCount.get();
+    }
+}
@@ -0,0 +1,351 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import com.goverse.provider.ContentAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Base Adapter object of a single fixed-schema record, stored in a memory-mapped file
+ *  with fixed binary layout derived from columns of the data class (see {@link RecordCodec}).
+ *  Long, int, boolean and double take 8 bytes each, string takes 4 bytes of length
+ *  and {@link #stringCapacity()} bytes of UTF-8, truncated beyond it.
+ *  Writers update fields in place under a sequence lock and readers retry until they
+ *  read an even, unchanged sequence, so reads take no lock and never see a half written record.
+ *  Written fields are in page cache as soon as written, surviving process death
+ *  without rewriting any file, call {@link #flush()} to force them to disk.
+ *  @param <T> data class
+ */
+public abstract class MappedContentAdapter<T> extends ContentAdapter {
+
+    private static final int MAGIC = 0x4D524543;
+
+    private static final int OFFSET_MAGIC = 0;
+
+    private static final int OFFSET_LAYOUT = 4;
+
+    /**
+     * sequence of last write, odd if process died in the middle of a write.
+     */
+    private static final int OFFSET_SEQ = 8;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Class<T> mClass;
+
+    private final RecordCodec<T> mCodec;
+
+    private final int[] mOffsets;
+
+    private final int mSize;
+
+    private final int mLayoutHash;
+
+    private volatile MappedByteBuffer mBuffer;
+
+    private final AtomicLong mSeq = new AtomicLong();
+
+    private final Object mWriteLock = new Object();
+
+    public MappedContentAdapter(ContentProvider contentProvider, Class<T> cls) {
+        super(contentProvider);
+        mClass = cls;
+        mCodec = RecordCodecs.of(cls);
+        int columnCount = mCodec.getColumnCount();
+        mOffsets = new int[columnCount];
+        int offset = HEADER_SIZE;
+        int layoutHash = stringCapacity();
+        for (int i = 0; i < columnCount; i ++) {
+            mOffsets[i] = offset;
+            offset += mCodec.getType(i) == AccessorPlan.TYPE_STRING ? 4 + stringCapacity() : 8;
+            layoutHash = 31 * layoutHash + mCodec.getColumns()[i].hashCode();
+            layoutHash = 31 * layoutHash + mCodec.getType(i);
+        }
+        mSize = offset;
+        mLayoutHash = layoutHash;
+    }
+
+    /**
+     * name of mapped file in files dir.
+     * @return fileName
+     */
+    protected String fileName() {
+        return mClass.getSimpleName() + ".rec";
+    }
+
+    /**
+     * max bytes of UTF-8 string field.
+     * @return capacity
+     */
+    protected int stringCapacity() {
+        return 64;
+    }
+
+    /**
+     * record written when file is created, layout changed, or record deleted.
+     * @return new record
+     */
+    protected T newRecord() {
+        try {
+            Constructor<T> constructor = mClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("no default constructor of " + mClass.getName(), e);
+        }
+    }
+
+    public RecordCodec<T> getCodec() {
+        return mCodec;
+    }
+
+    private MappedByteBuffer getBuffer() {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer == null) {
+            synchronized (mWriteLock) {
+                if (mBuffer == null) {
+                    mBuffer = map();
+                }
+                buffer = mBuffer;
+            }
+        }
+        return buffer;
+    }
+
+    private MappedByteBuffer map() {
+        File file = new File(getContentProvider().getContext().getFilesDir(), fileName());
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSize);
+                // mapping stays valid after the channel is closed.
+                if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.getInt(OFFSET_LAYOUT) != mLayoutHash) {
+                    Log.d(TAG, "map---init " + file + ", size: " + mSize);
+                    writeRecord(buffer, newRecord());
+                    buffer.putInt(OFFSET_LAYOUT, mLayoutHash);
+                    buffer.putInt(OFFSET_MAGIC, MAGIC);
+                    buffer.putLong(OFFSET_SEQ, 0);
+                } else {
+                    long seq = buffer.getLong(OFFSET_SEQ);
+                    if ((seq & 1) != 0) {
+                        Log.d(TAG, "map---write interrupted at seq: " + seq + ", fields are kept");
+                        seq ++;
+                        buffer.putLong(OFFSET_SEQ, seq);
+                    }
+                    mSeq.set(seq);
+                }
+                return buffer;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to map " + file, e);
+        }
+    }
+
+    /**
+     * read columns of record, consistent with a single write.
+     * @param indexes column indexes, null for all columns, -1 reads null
+     * @return row
+     */
+    public Object[] readRow(int[] indexes) {
+        MappedByteBuffer buffer = getBuffer();
+        int count = indexes != null ? indexes.length : mOffsets.length;
+        Object[] row = new Object[count];
+        while (true) {
+            long seq = mSeq.get();
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            for (int i = 0; i < count; i ++) {
+                int index = indexes != null ? indexes[i] : i;
+                row[i] = index >= 0 ? readColumn(buffer, index) : null;
+            }
+            // CAS of the same value is a full fence, so that reads above can not be reordered after it.
+            if (mSeq.compareAndSet(seq, seq)) {
+                return row;
+            }
+        }
+    }
+
+    private Object readColumn(ByteBuffer buffer, int index) {
+        int offset = mOffsets[index];
+        switch (mCodec.getType(index)) {
+            case AccessorPlan.TYPE_DOUBLE:
+                return buffer.getDouble(offset);
+            case AccessorPlan.TYPE_STRING:
+                int length = Math.max(0, Math.min(buffer.getInt(offset), stringCapacity()));
+                byte[] bytes = new byte[length];
+                ByteBuffer duplicate = buffer.duplicate();
+                duplicate.position(offset + 4);
+                duplicate.get(bytes);
+                return new String(bytes, UTF_8);
+            default:
+                return buffer.getLong(offset);
+        }
+    }
+
+    /**
+     * write all columns of record.
+     * @param t record
+     */
+    public void write(T t) {
+        MappedByteBuffer buffer = getBuffer();
+        synchronized (mWriteLock) {
+            beginWrite(buffer);
+            try {
+                writeRecord(buffer, t);
+            } finally {
+                endWrite(buffer);
+            }
+        }
+    }
+
+    private void writeRecord(final ByteBuffer buffer, T t) {
+        mCodec.writeRow(t, null, new RowWriter() {
+            @Override
+            public void putLong(int column, long value) {
+                buffer.putLong(mOffsets[column], value);
+            }
+
+            @Override
+            public void putDouble(int column, double value) {
+                buffer.putDouble(mOffsets[column], value);
+            }
+
+            @Override
+            public void putString(int column, String value) {
+                writeString(buffer, column, value);
+            }
+
+            @Override
+            public void putNull(int column) {
+                if (mCodec.getType(column) == AccessorPlan.TYPE_STRING) {
+                    writeString(buffer, column, "");
+                } else {
+                    buffer.putLong(mOffsets[column], 0);
+                }
+            }
+        });
+    }
+
+    private void writeString(ByteBuffer buffer, int column, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, stringCapacity());
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(mOffsets[column] + 4);
+        duplicate.put(bytes, 0, length);
+        buffer.putInt(mOffsets[column], length);
+    }
+
+    private void beginWrite(ByteBuffer buffer) {
+        buffer.putLong(OFFSET_SEQ, mSeq.incrementAndGet());
+    }
+
+    private void endWrite(ByteBuffer buffer) {
+        buffer.putLong(OFFSET_SEQ, mSeq.incrementAndGet());
+    }
+
+    /**
+     * update columns in place by ContentValues, keys not matching any column are ignored.
+     * @param values values
+     * @return count of columns written
+     */
+    protected int apply(ContentValues values) {
+        MappedByteBuffer buffer = getBuffer();
+        int count = 0;
+        synchronized (mWriteLock) {
+            beginWrite(buffer);
+            try {
+                for (Map.Entry<String, Object> entry : values.valueSet()) {
+                    String key = entry.getKey();
+                    int index = mCodec.indexOf(key);
+                    if (index < 0) continue;
+                    switch (mCodec.getType(index)) {
+                        case AccessorPlan.TYPE_DOUBLE:
+                            Double asDouble = values.getAsDouble(key);
+                            if (asDouble == null) continue;
+                            buffer.putDouble(mOffsets[index], asDouble);
+                            break;
+                        case AccessorPlan.TYPE_STRING:
+                            String asString = values.getAsString(key);
+                            writeString(buffer, index, asString != null ? asString : "");
+                            break;
+                        case AccessorPlan.TYPE_BOOLEAN:
+                            Boolean asBoolean = values.getAsBoolean(key);
+                            if (asBoolean == null) continue;
+                            buffer.putLong(mOffsets[index], asBoolean ? 1 : 0);
+                            break;
+                        default:
+                            Long asLong = values.getAsLong(key);
+                            if (asLong == null) continue;
+                            buffer.putLong(mOffsets[index], asLong);
+                            break;
+                    }
+                    count ++;
+                }
+            } finally {
+                endWrite(buffer);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Cursor query(@Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        String[] columns = projection != null ? projection : mCodec.getColumns();
+        MatrixCursor matrixCursor = new MatrixCursor(columns, 1);
+        matrixCursor.addRow(readRow(projection != null ? mCodec.resolve(projection) : null));
+        return matrixCursor;
+    }
+
+    @Override
+    public boolean insert(@Nullable ContentValues values) {
+        if (values == null) return false;
+        return apply(values) > 0;
+    }
+
+    @Override
+    public int update(@Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        if (values == null) return 0;
+        return apply(values) > 0 ? 1 : 0;
+    }
+
+    /**
+     * reset record to {@link #newRecord()}.
+     */
+    @Override
+    public int delete(@Nullable String selection, @Nullable String[] selectionArgs) {
+        write(newRecord());
+        return 1;
+    }
+
+    /**
+     * force written fields to disk, they survive process death without it.
+     */
+    @Override
+    public void flush() {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+}
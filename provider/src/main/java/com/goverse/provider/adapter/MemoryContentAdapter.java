@@ -0,0 +1,524 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.goverse.provider.ContentAdapter;
+import com.goverse.provider.selection.ColumnReader;
+import com.goverse.provider.selection.RowOrder;
+import com.goverse.provider.selection.Selection;
+import com.goverse.provider.util.ProviderExecutors;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *  Base memory Adapter object holding the last {@code capacity} records of data class
+ *  in a preallocated ring buffer of primitive columns, so that adding a sample creates no object
+ *  (string columns keep their references). Oldest record is overwritten when full.
+ *  Query returns records in insertion order, sortOrder supports {@code DESC} for newest first,
+ *  columns as {@link RowOrder} and {@code LIMIT n} applied after ordering as SQL, e.g. "DESC LIMIT 1"
+ *  for the latest record and "LIMIT 10" for the oldest ten.
+ *  Selection is evaluated on the ring buffer, see {@link Selection}.
+ *  Records are lost with the process unless {@link #snapshotInterval()} is set,
+ *  then they are written to a file periodically and restored on first access.
+ *  @param <T> data class
+ */
+public abstract class MemoryContentAdapter<T> extends ContentAdapter {
+
+    private static final int SNAPSHOT_MAGIC = 0x4D454D53;
+
+    private final RecordCodec<T> mCodec;
+
+    private final int mCapacity;
+
+    /**
+     * index of column in long or string columns.
+     */
+    private final int[] mSlots;
+
+    private final int mLongCount;
+
+    private final int mStringCount;
+
+    /**
+     * long, int, boolean columns, and double columns as raw bits, row major.
+     */
+    private final long[] mLongs;
+
+    private final String[] mStrings;
+
+    /**
+     * next position to write.
+     */
+    private int mHead;
+
+    private int mSize;
+
+    private long mWriteCount;
+
+    /**
+     * write count of last snapshot, guarded by this.
+     */
+    private long mSnapshotWriteCount;
+
+    private volatile boolean mRestored;
+
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    private final SlotWriter mSlotWriter = new SlotWriter();
+
+    private final SlotReader mSlotReader = new SlotReader();
+
+    private ScheduledFuture<?> mSnapshotFuture;
+
+    /**
+     * writes a record into ring position, used under write lock.
+     */
+    private class SlotWriter implements RowWriter {
+
+        int position;
+
+        @Override
+        public void putLong(int column, long value) {
+            mLongs[position * mLongCount + mSlots[column]] = value;
+        }
+
+        @Override
+        public void putDouble(int column, double value) {
+            mLongs[position * mLongCount + mSlots[column]] = Double.doubleToRawLongBits(value);
+        }
+
+        @Override
+        public void putString(int column, String value) {
+            mStrings[position * mStringCount + mSlots[column]] = value;
+        }
+
+        @Override
+        public void putNull(int column) {
+            if (mCodec.getType(column) == AccessorPlan.TYPE_STRING) {
+                putString(column, null);
+            } else {
+                putLong(column, 0);
+            }
+        }
+    }
+
+    /**
+     * ring position of a record.
+     */
+    private static class Slot {
+        int position;
+    }
+
+    /**
+     * reads records in ring positions, used under read lock.
+     */
+    private class SlotReader implements ColumnReader<Slot> {
+
+        @Override
+        public int indexOf(String column) {
+            return mCodec.indexOf(column);
+        }
+
+        @Override
+        public int getType(int index) {
+            return mCodec.getType(index);
+        }
+
+        @Override
+        public long getLong(Slot row, int index) {
+            return mLongs[row.position * mLongCount + mSlots[index]];
+        }
+
+        @Override
+        public double getDouble(Slot row, int index) {
+            return Double.longBitsToDouble(mLongs[row.position * mLongCount + mSlots[index]]);
+        }
+
+        @Override
+        public String getString(Slot row, int index) {
+            return mStrings[row.position * mStringCount + mSlots[index]];
+        }
+    }
+
+    public MemoryContentAdapter(ContentProvider contentProvider, Class<T> cls, int capacity) {
+        super(contentProvider);
+        mCodec = RecordCodecs.of(cls);
+        mCapacity = Math.max(1, capacity);
+        int columnCount = mCodec.getColumnCount();
+        mSlots = new int[columnCount];
+        int longCount = 0;
+        int stringCount = 0;
+        for (int i = 0; i < columnCount; i ++) {
+            mSlots[i] = mCodec.getType(i) == AccessorPlan.TYPE_STRING ? stringCount ++ : longCount ++;
+        }
+        mLongCount = longCount;
+        mStringCount = stringCount;
+        mLongs = new long[mCapacity * longCount];
+        mStrings = new String[mCapacity * stringCount];
+    }
+
+    /**
+     * interval in millis to write records to file, 0 to keep them only in memory.
+     * @return interval
+     */
+    protected long snapshotInterval() {
+        return 0;
+    }
+
+    /**
+     * name of snapshot file in files dir.
+     * @return fileName
+     */
+    protected String snapshotFileName() {
+        return getClass().getSimpleName() + ".ring";
+    }
+
+    public RecordCodec<T> getCodec() {
+        return mCodec;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * restore snapshot and start periodic snapshot, called before first access.
+     */
+    private void ensureRestored() {
+        if (mRestored) return;
+        mLock.writeLock().lock();
+        try {
+            if (mRestored) return;
+            mRestored = true;
+            long interval = snapshotInterval();
+            if (interval <= 0) return;
+            restore();
+            mSnapshotFuture = ProviderExecutors.background().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    snapshot();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * add a record.
+     * @param t record
+     */
+    public void add(T t) {
+        ensureRestored();
+        mLock.writeLock().lock();
+        try {
+            mSlotWriter.position = advance();
+            mCodec.writeRow(t, null, mSlotWriter);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * take next position to write, under write lock.
+     * @return position
+     */
+    private int advance() {
+        int position = mHead;
+        mHead = (mHead + 1) % mCapacity;
+        if (mSize < mCapacity) mSize ++;
+        mWriteCount ++;
+        return position;
+    }
+
+    private void putValues(int position, ContentValues values) {
+        for (int i = 0; i < mLongCount; i ++) {
+            mLongs[position * mLongCount + i] = 0;
+        }
+        for (int i = 0; i < mStringCount; i ++) {
+            mStrings[position * mStringCount + i] = null;
+        }
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            String key = entry.getKey();
+            int index = mCodec.indexOf(key);
+            if (index < 0) continue;
+            int slot = mSlots[index];
+            switch (mCodec.getType(index)) {
+                case AccessorPlan.TYPE_STRING:
+                    mStrings[position * mStringCount + slot] = values.getAsString(key);
+                    break;
+                case AccessorPlan.TYPE_DOUBLE:
+                    Double asDouble = values.getAsDouble(key);
+                    if (asDouble != null) mLongs[position * mLongCount + slot] = Double.doubleToRawLongBits(asDouble);
+                    break;
+                case AccessorPlan.TYPE_BOOLEAN:
+                    Boolean asBoolean = values.getAsBoolean(key);
+                    if (asBoolean != null) mLongs[position * mLongCount + slot] = asBoolean ? 1 : 0;
+                    break;
+                default:
+                    Long asLong = values.getAsLong(key);
+                    if (asLong != null) mLongs[position * mLongCount + slot] = asLong;
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public boolean insert(@Nullable ContentValues values) {
+        if (values == null) return false;
+        ensureRestored();
+        mLock.writeLock().lock();
+        try {
+            putValues(advance(), values);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public int bulkInsert(@NonNull ContentValues[] values) {
+        ensureRestored();
+        int count = 0;
+        mLock.writeLock().lock();
+        try {
+            for (ContentValues value : values) {
+                if (value == null) continue;
+                putValues(advance(), value);
+                count ++;
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    /**
+     * records are immutable samples.
+     * @return 0
+     */
+    @Override
+    public int update(@Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    /**
+     * clear all records.
+     * @return count deleted
+     */
+    @Override
+    public int delete(@Nullable String selection, @Nullable String[] selectionArgs) {
+        ensureRestored();
+        mLock.writeLock().lock();
+        try {
+            int size = mSize;
+            mHead = 0;
+            mSize = 0;
+            for (int i = 0; i < mStrings.length; i ++) {
+                mStrings[i] = null;
+            }
+            mWriteCount ++;
+            return size;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Cursor query(@Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        ensureRestored();
+        String[] columns = projection != null ? projection : mCodec.getColumns();
+        int[] indexes = projection != null ? mCodec.resolve(projection) : null;
+        Selection.Filter filter = Selection.compile(selection, mSlotReader).bind(selectionArgs);
+        RowOrder order = RowOrder.compile(sortOrder, mSlotReader);
+        boolean newestFirst = order.isDescending();
+        int limit = order.getLimit();
+        mLock.readLock().lock();
+        try {
+            // positions of matched records in result order, insertion order if sorted by columns,
+            // stopping at limit unless sorted by columns.
+            boolean backwards = newestFirst && !order.hasKeys();
+            int[] positions = new int[mSize];
+            int matched = 0;
+            Slot slot = new Slot();
+            int oldest = mHead - mSize;
+            for (int i = 0; i < mSize; i ++) {
+                if (!order.hasKeys() && limit >= 0 && matched >= limit) break;
+                int position = backwards ? mHead - 1 - i : oldest + i;
+                slot.position = (position % mCapacity + mCapacity) % mCapacity;
+                if (filter.matches(mSlotReader, slot)) positions[matched ++] = slot.position;
+            }
+            int count = limit >= 0 ? Math.min(limit, matched) : matched;
+            RecordCursor recordCursor = new RecordCursor(columns, count);
+            if (order.hasKeys()) {
+                // stable sort keeps insertion order of equal keys.
+                Slot[] slots = new Slot[matched];
+                for (int i = 0; i < matched; i ++) {
+                    slots[i] = new Slot();
+                    slots[i].position = positions[i];
+                }
+                Arrays.sort(slots, order.comparator(mSlotReader));
+                for (int i = 0; i < count; i ++) {
+                    writeRow(slots[i].position, indexes, recordCursor.newRow(), columns.length);
+                }
+                return recordCursor;
+            }
+            for (int i = 0; i < count; i ++) {
+                writeRow(positions[i], indexes, recordCursor.newRow(), columns.length);
+            }
+            return recordCursor;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    private void writeRow(int position, int[] indexes, RowWriter writer, int columnCount) {
+        for (int i = 0; i < columnCount; i ++) {
+            int index = indexes != null ? indexes[i] : i;
+            if (index < 0) {
+                writer.putNull(i);
+                continue;
+            }
+            int slot = mSlots[index];
+            switch (mCodec.getType(index)) {
+                case AccessorPlan.TYPE_STRING:
+                    writer.putString(i, mStrings[position * mStringCount + slot]);
+                    break;
+                case AccessorPlan.TYPE_DOUBLE:
+                    writer.putDouble(i, Double.longBitsToDouble(mLongs[position * mLongCount + slot]));
+                    break;
+                default:
+                    writer.putLong(i, mLongs[position * mLongCount + slot]);
+                    break;
+            }
+        }
+    }
+
+    private File getSnapshotFile() {
+        return new File(getContentProvider().getContext().getFilesDir(), snapshotFileName());
+    }
+
+    /**
+     * write records to snapshot file if changed since last snapshot.
+     */
+    private synchronized void snapshot() {
+        long[] longs;
+        String[] strings;
+        int size;
+        long writeCount;
+        mLock.readLock().lock();
+        try {
+            writeCount = mWriteCount;
+            if (writeCount == mSnapshotWriteCount) return;
+            size = mSize;
+            longs = new long[size * mLongCount];
+            strings = new String[size * mStringCount];
+            for (int i = 0; i < size; i ++) {
+                int position = ((mHead - size + i) % mCapacity + mCapacity) % mCapacity;
+                System.arraycopy(mLongs, position * mLongCount, longs, i * mLongCount, mLongCount);
+                System.arraycopy(mStrings, position * mStringCount, strings, i * mStringCount, mStringCount);
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+        File file = getSnapshotFile();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(mLongCount);
+                out.writeInt(mStringCount);
+                out.writeInt(size);
+                for (long value : longs) {
+                    out.writeLong(value);
+                }
+                for (String value : strings) {
+                    out.writeBoolean(value != null);
+                    if (value != null) out.writeUTF(value);
+                }
+            } finally {
+                out.close();
+            }
+            if (tmpFile.renameTo(file)) {
+                mSnapshotWriteCount = writeCount;
+            }
+            Log.d(TAG, "snapshot---size: " + size);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * restore records from snapshot file, under write lock.
+     */
+    private void restore() {
+        File file = getSnapshotFile();
+        if (!file.exists()) return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != mLongCount || in.readInt() != mStringCount) {
+                    Log.d(TAG, "restore---layout changed, drop snapshot");
+                    return;
+                }
+                int size = in.readInt();
+                // keep the newest records if capacity shrank.
+                int skip = Math.max(0, size - mCapacity);
+                int count = size - skip;
+                long[] longs = new long[size * mLongCount];
+                for (int i = 0; i < longs.length; i ++) {
+                    longs[i] = in.readLong();
+                }
+                System.arraycopy(longs, skip * mLongCount, mLongs, 0, count * mLongCount);
+                for (int i = 0; i < size * mStringCount; i ++) {
+                    String value = in.readBoolean() ? in.readUTF() : null;
+                    if (i >= skip * mStringCount) mStrings[i - skip * mStringCount] = value;
+                }
+                mSize = count;
+                mHead = count % mCapacity;
+                Log.d(TAG, "restore---size: " + count);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * write snapshot now if enabled.
+     */
+    @Override
+    public void flush() {
+        if (mRestored && snapshotInterval() > 0) {
+            snapshot();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        ScheduledFuture<?> snapshotFuture = mSnapshotFuture;
+        if (snapshotFuture != null) {
+            snapshotFuture.cancel(false);
+        }
+        super.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.goverse.provider.adapter;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Authenticated encryption of stored records with AES-GCM.
+ * Every encryption takes a random 12 bytes nonce generated by the cipher provider, as keys of
+ * AndroidKeyStore reject a nonce given by the caller, output is
+ * version byte, nonce, then ciphertext with 16 bytes tag.
+ * Associated data, such as the storage key, is authenticated but not stored,
+ * so that a value moved to another key fails to decrypt.
+ * Cipher instances are cached per thread and only re-initialized per call.
+ */
+public class RecordCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final byte VERSION = 1;
+
+    private static final int NONCE_LENGTH = 12;
+
+    private static final int TAG_BITS = 128;
+
+    private final SecretKey mKey;
+
+    private final ThreadLocal<Cipher> mCiphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    public RecordCipher(SecretKey key) {
+        mKey = key;
+    }
+
+    /**
+     * encrypt data.
+     * @param plain plain bytes
+     * @param associatedData authenticated data not included in output, may be null
+     * @return version, nonce and ciphertext
+     * @throws GeneralSecurityException GeneralSecurityException
+     */
+    public byte[] encrypt(byte[] plain, byte[] associatedData) throws GeneralSecurityException {
+        Cipher cipher = mCiphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        byte[] nonce = cipher.getIV();
+        if (nonce == null || nonce.length != NONCE_LENGTH) {
+            throw new GeneralSecurityException("unexpected nonce length " + (nonce != null ? nonce.length : 0));
+        }
+        if (associatedData != null) cipher.updateAAD(associatedData);
+        byte[] output = new byte[1 + NONCE_LENGTH + cipher.getOutputSize(plain.length)];
+        output[0] = VERSION;
+        System.arraycopy(nonce, 0, output, 1, NONCE_LENGTH);
+        int length = cipher.doFinal(plain, 0, plain.length, output, 1 + NONCE_LENGTH);
+        return length == output.length - 1 - NONCE_LENGTH ? output : Arrays.copyOf(output, 1 + NONCE_LENGTH + length);
+    }
+
+    /**
+     * decrypt data produced by {@link #encrypt(byte[], byte[])}.
+     * @param data version, nonce and ciphertext
+     * @param associatedData the same authenticated data as encryption
+     * @return plain bytes
+     * @throws GeneralSecurityException if data is tampered, or key or associated data mismatch
+     */
+    public byte[] decrypt(byte[] data, byte[] associatedData) throws GeneralSecurityException {
+        if (data.length < 1 + NONCE_LENGTH + TAG_BITS / 8 || data[0] != VERSION) {
+            throw new GeneralSecurityException("invalid encrypted record");
+        }
+        Cipher cipher = mCiphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(TAG_BITS, data, 1, NONCE_LENGTH));
+        if (associatedData != null) cipher.updateAAD(associatedData);
+        return cipher.doFinal(data, 1 + NONCE_LENGTH, data.length - 1 - NONCE_LENGTH);
+    }
+}
@@ -0,0 +1,71 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentValues;
+import com.google.gson.TypeAdapter;
+import com.goverse.provider.selection.ColumnReader;
+
+/**
+ * Codec of a data class used by {@link SPContentAdapter}, which applies ContentValues,
+ * writes cursor rows and serializes the object. Codec is generated at compile time
+ * for data class annotated with {@link com.goverse.provider.annotation.ContentRecord},
+ * otherwise {@link AccessorPlan} is used. See {@link RecordCodecs#of(Class)}.
+ * Column types are {@link AccessorPlan} TYPE_*. Records are read as rows of
+ * {@link ColumnReader} to evaluate selection and sortOrder.
+ * @param <T> data class
+ */
+public interface RecordCodec<T> extends ColumnReader<T> {
+
+    /**
+     * get all column names, the array is shared and must not be modified.
+     * @return columns
+     */
+    String[] getColumns();
+
+    int getColumnCount();
+
+    int getType(int index);
+
+    /**
+     * get index of column.
+     * @param column column name
+     * @return index, -1 if not found
+     */
+    int indexOf(String column);
+
+    /**
+     * resolve projection to column indexes, -1 for unknown column.
+     * The array is shared and must not be modified.
+     * @param projection projection
+     * @return indexes
+     */
+    int[] resolve(String[] projection);
+
+    Object get(T t, int index);
+
+    long getLong(T t, int index);
+
+    double getDouble(T t, int index);
+
+    String getString(T t, int index);
+
+    /**
+     * set fields of object by ContentValues, keys not matching any column are ignored.
+     * @param t object
+     * @param contentValues values
+     */
+    void apply(T t, ContentValues contentValues);
+
+    /**
+     * write columns of object into row.
+     * @param t object
+     * @param indexes column index for each row column, null for all columns, -1 writes null
+     * @param writer row writer
+     */
+    void writeRow(T t, int[] indexes, RowWriter writer);
+
+    /**
+     * get json type adapter.
+     * @return typeAdapter, null if serialized by reflection
+     */
+    TypeAdapter<T> getTypeAdapter();
+}
@@ -0,0 +1,52 @@
+package com.goverse.provider.adapter;
+
+import android.util.Log;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookup of {@link RecordCodec}, the generated codec named
+ * {@code <package>.<Outer_Inner>_RecordCodec} is preferred to {@link AccessorPlan}.
+ */
+public final class RecordCodecs {
+
+    private static final String TAG = RecordCodecs.class.getSimpleName();
+
+    /**
+     * suffix of generated codec class name.
+     */
+    public static final String SUFFIX = "_RecordCodec";
+
+    private static final ConcurrentHashMap<Class<?>, RecordCodec<?>> sCodecs = new ConcurrentHashMap<>();
+
+    private RecordCodecs() {}
+
+    /**
+     * get cached codec of class.
+     * @param cls data class
+     * @return codec
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RecordCodec<T> of(Class<T> cls) {
+        RecordCodec<?> codec = sCodecs.get(cls);
+        if (codec == null) {
+            codec = load(cls);
+            RecordCodec<?> previous = sCodecs.putIfAbsent(cls, codec);
+            if (previous != null) codec = previous;
+        }
+        return (RecordCodec<T>) codec;
+    }
+
+    private static <T> RecordCodec<?> load(Class<T> cls) {
+        String name = cls.getName();
+        int packageEnd = name.lastIndexOf('.');
+        String codecName = name.substring(0, packageEnd + 1) + name.substring(packageEnd + 1).replace('$', '_') + SUFFIX;
+        try {
+            return (RecordCodec<?>) Class.forName(codecName, true, cls.getClassLoader()).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            Log.d(TAG, "no generated codec for " + name);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return AccessorPlan.of(cls);
+    }
+}
@@ -0,0 +1,289 @@
+package com.goverse.provider.adapter;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+
+import java.util.Arrays;
+
+/**
+ * Cursor storing typed cells natively instead of boxed objects like {@link android.database.MatrixCursor}:
+ * integers and doubles in a long array, strings in a string array, with a type per cell,
+ * so that {@link #getType(int)} reports the real type and {@link #fillWindow(int, CursorWindow)}
+ * copies cells into the window for IPC without boxing or conversion.
+ * Rows are added by {@link #newRow()} and written as {@link RowWriter}, e.g. by
+ * {@link RecordCodec#writeRow(Object, int[], RowWriter)}.
+ */
+public class RecordCursor extends AbstractCursor implements RowWriter {
+
+    private final String[] mColumns;
+
+    private final int mColumnCount;
+
+    private byte[] mTypes;
+
+    /**
+     * integer cells, and double cells as raw bits.
+     */
+    private long[] mValues;
+
+    /**
+     * string cells, allocated on first string.
+     */
+    private String[] mStrings;
+
+    private int mRowCount;
+
+    /**
+     * offset of the row being written.
+     */
+    private int mRowOffset = -1;
+
+    /**
+     * sharing cells with other cursors, see {@link #readOnlyCopy()}.
+     */
+    private boolean mReadOnly;
+
+    public RecordCursor(String[] columns) {
+        this(columns, 1);
+    }
+
+    /**
+     * @param columns column names
+     * @param initialRows rows to allocate, grows when exceeded
+     */
+    public RecordCursor(String[] columns, int initialRows) {
+        mColumns = columns;
+        mColumnCount = columns.length;
+        int capacity = Math.max(1, initialRows) * mColumnCount;
+        mTypes = new byte[capacity];
+        mValues = new long[capacity];
+    }
+
+    /**
+     * freeze cells and create a cursor sharing them, both cursors are read only afterwards,
+     * so that a cached result can be returned many times without copying.
+     * @return cursor positioned before the first row
+     */
+    public RecordCursor readOnlyCopy() {
+        mReadOnly = true;
+        mRowOffset = -1;
+        RecordCursor copy = new RecordCursor(mColumns, 1);
+        copy.mTypes = mTypes;
+        copy.mValues = mValues;
+        copy.mStrings = mStrings;
+        copy.mRowCount = mRowCount;
+        copy.mReadOnly = true;
+        return copy;
+    }
+
+    /**
+     * count of cells, rows × columns.
+     * @return size
+     */
+    public int getCellCount() {
+        return mRowCount * mColumnCount;
+    }
+
+    /**
+     * append a row of null cells, following put calls write into it.
+     * @return this
+     */
+    public RecordCursor newRow() {
+        checkWritable();
+        int required = (mRowCount + 1) * mColumnCount;
+        if (required > mTypes.length) {
+            int capacity = Math.max(required, mTypes.length * 2);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+            if (mStrings != null) mStrings = Arrays.copyOf(mStrings, capacity);
+        }
+        mRowOffset = mRowCount * mColumnCount;
+        mRowCount ++;
+        return this;
+    }
+
+    /**
+     * remove all rows, keeping allocated storage.
+     */
+    public void reset() {
+        checkWritable();
+        Arrays.fill(mTypes, 0, mRowCount * mColumnCount, (byte) Cursor.FIELD_TYPE_NULL);
+        if (mStrings != null) Arrays.fill(mStrings, 0, mRowCount * mColumnCount, null);
+        mRowCount = 0;
+        mRowOffset = -1;
+        moveToPosition(-1);
+    }
+
+    private void checkWritable() {
+        if (mReadOnly) {
+            throw new IllegalStateException("cells are shared by readOnlyCopy()");
+        }
+    }
+
+    private int checkWriting(int column) {
+        if (mRowOffset < 0) {
+            throw new IllegalStateException("newRow() must be called before writing cells");
+        }
+        if (column < 0 || column >= mColumnCount) {
+            throw new IndexOutOfBoundsException("column: " + column + ", count: " + mColumnCount);
+        }
+        return mRowOffset + column;
+    }
+
+    @Override
+    public void putLong(int column, long value) {
+        int cell = checkWriting(column);
+        mTypes[cell] = Cursor.FIELD_TYPE_INTEGER;
+        mValues[cell] = value;
+    }
+
+    @Override
+    public void putDouble(int column, double value) {
+        int cell = checkWriting(column);
+        mTypes[cell] = Cursor.FIELD_TYPE_FLOAT;
+        mValues[cell] = Double.doubleToRawLongBits(value);
+    }
+
+    @Override
+    public void putString(int column, String value) {
+        int cell = checkWriting(column);
+        if (value == null) {
+            mTypes[cell] = Cursor.FIELD_TYPE_NULL;
+            return;
+        }
+        if (mStrings == null) mStrings = new String[mTypes.length];
+        mTypes[cell] = Cursor.FIELD_TYPE_STRING;
+        mStrings[cell] = value;
+    }
+
+    @Override
+    public void putNull(int column) {
+        mTypes[checkWriting(column)] = Cursor.FIELD_TYPE_NULL;
+    }
+
+    private int cell(int column) {
+        if (column < 0 || column >= mColumnCount) {
+            throw new IndexOutOfBoundsException("column: " + column + ", count: " + mColumnCount);
+        }
+        checkPosition();
+        return mPos * mColumnCount + column;
+    }
+
+    @Override
+    public int getCount() {
+        return mRowCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public int getType(int column) {
+        return mTypes[cell(column)];
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mTypes[cell(column)] == Cursor.FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public long getLong(int column) {
+        int cell = cell(column);
+        switch (mTypes[cell]) {
+            case Cursor.FIELD_TYPE_INTEGER: return mValues[cell];
+            case Cursor.FIELD_TYPE_FLOAT: return (long) Double.longBitsToDouble(mValues[cell]);
+            case Cursor.FIELD_TYPE_STRING: return Long.parseLong(mStrings[cell]);
+            default: return 0;
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int cell = cell(column);
+        switch (mTypes[cell]) {
+            case Cursor.FIELD_TYPE_INTEGER: return mValues[cell];
+            case Cursor.FIELD_TYPE_FLOAT: return Double.longBitsToDouble(mValues[cell]);
+            case Cursor.FIELD_TYPE_STRING: return Double.parseDouble(mStrings[cell]);
+            default: return 0;
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        int cell = cell(column);
+        switch (mTypes[cell]) {
+            case Cursor.FIELD_TYPE_INTEGER: return Long.toString(mValues[cell]);
+            case Cursor.FIELD_TYPE_FLOAT: return Double.toString(Double.longBitsToDouble(mValues[cell]));
+            case Cursor.FIELD_TYPE_STRING: return mStrings[cell];
+            default: return null;
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    /**
+     * copy rows from position into window with their types, until the window is full.
+     * @param position start position
+     * @param window window
+     */
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        if (position < 0 || position > mRowCount) return;
+        window.acquireReference();
+        try {
+            window.clear();
+            window.setStartPosition(position);
+            window.setNumColumns(mColumnCount);
+            for (int row = position; row < mRowCount; row ++) {
+                if (!window.allocRow()) break;
+                if (!putRow(window, row)) {
+                    window.freeLastRow();
+                    break;
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    private boolean putRow(CursorWindow window, int row) {
+        int offset = row * mColumnCount;
+        for (int column = 0; column < mColumnCount; column ++) {
+            int cell = offset + column;
+            boolean success;
+            switch (mTypes[cell]) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    success = window.putLong(mValues[cell], row, column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    success = window.putDouble(Double.longBitsToDouble(mValues[cell]), row, column);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    success = window.putString(mStrings[cell], row, column);
+                    break;
+                default:
+                    success = window.putNull(row, column);
+                    break;
+            }
+            if (!success) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,594 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.goverse.provider.export.RowSink;
+import com.goverse.provider.selection.ColumnReader;
+import com.goverse.provider.selection.RowOrder;
+import com.goverse.provider.selection.Selection;
+import com.goverse.provider.util.ProviderExecutors;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hourly history of a record whose numeric columns are cumulative within a day, such as steps.
+ * The latest record of each hour is kept. Today is kept in primitive arrays and updated in place,
+ * past days are sealed into compact columnar blocks: hours present as a bit mask, then each
+ * column over the hours, longs as zigzag varint of delta to previous hour, doubles as XOR
+ * to previous hour with trailing zeros stripped. Days beyond retention are dropped.
+ * Blocks are written to a file in background shortly after changes and on {@link #flush()}.
+ * @param <T> data class
+ */
+public class RecordHistory<T> {
+
+    private final String TAG = RecordHistory.class.getSimpleName();
+
+    private static final int MAGIC = 0x48495354;
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final int HOURS = 24;
+
+    /**
+     * delay of writing file after a change, coalescing writes of the minute.
+     */
+    private static final long PERSIST_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private final ContentProvider mContentProvider;
+
+    private final String mFileName;
+
+    private final RecordCodec<T> mCodec;
+
+    private final int mTimeIndex;
+
+    private final int mRetentionDays;
+
+    /**
+     * codec index of numeric columns stored.
+     */
+    private final int[] mColumns;
+
+    private final boolean[] mDoubles;
+
+    private final int mLayoutHash;
+
+    private final HourReader mReader = new HourReader();
+
+    /**
+     * sealed days by start time of day.
+     */
+    private final TreeMap<Long, byte[]> mDays = new TreeMap<>();
+
+    private long mDayStart = Long.MIN_VALUE;
+
+    private long mDayEnd = Long.MIN_VALUE;
+
+    /**
+     * values of today by hour and column, double as raw bits.
+     */
+    private final long[][] mHours;
+
+    private int mHourMask;
+
+    private boolean mLoaded;
+
+    private boolean mDirty;
+
+    private boolean mPersistScheduled;
+
+    private final Object mPersistLock = new Object();
+
+    private final Runnable mPersistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param contentProvider contentProvider, context is used lazily
+     * @param fileName file name in files dir
+     * @param cls data class
+     * @param timeColumn long column of record time
+     * @param retentionDays days kept including today
+     */
+    public RecordHistory(ContentProvider contentProvider, String fileName, Class<T> cls, String timeColumn, int retentionDays) {
+        mContentProvider = contentProvider;
+        mFileName = fileName;
+        mCodec = RecordCodecs.of(cls);
+        mTimeIndex = mCodec.indexOf(timeColumn);
+        if (mTimeIndex < 0) {
+            throw new IllegalArgumentException("no time column " + timeColumn + " in " + cls.getName());
+        }
+        mRetentionDays = Math.max(1, retentionDays);
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < mCodec.getColumnCount(); i ++) {
+            if (i != mTimeIndex && mCodec.getType(i) != AccessorPlan.TYPE_STRING) {
+                columns.add(i);
+            }
+        }
+        mColumns = new int[columns.size()];
+        mDoubles = new boolean[columns.size()];
+        int layoutHash = 0;
+        for (int i = 0; i < mColumns.length; i ++) {
+            mColumns[i] = columns.get(i);
+            mDoubles[i] = mCodec.getType(mColumns[i]) == AccessorPlan.TYPE_DOUBLE;
+            layoutHash = 31 * layoutHash + mCodec.getColumns()[mColumns[i]].hashCode();
+            layoutHash = 31 * layoutHash + mCodec.getType(mColumns[i]);
+        }
+        mLayoutHash = layoutHash;
+        mHours = new long[HOURS][mColumns.length];
+    }
+
+    /**
+     * record latest values of the hour of record time.
+     * @param t record
+     */
+    public synchronized void record(T t) {
+        ensureLoaded();
+        long time = mCodec.getLong(t, mTimeIndex);
+        if (time < mDayStart || time >= mDayEnd) {
+            switchDay(getStartTimeOfDay(time));
+        }
+        int hour = (int) Math.min(HOURS - 1, (time - mDayStart) / HOUR);
+        long[] values = mHours[hour];
+        for (int i = 0; i < mColumns.length; i ++) {
+            values[i] = mDoubles[i]
+                    ? Double.doubleToRawLongBits(mCodec.getDouble(t, mColumns[i]))
+                    : mCodec.getLong(t, mColumns[i]);
+        }
+        mHourMask |= 1 << hour;
+        mDirty = true;
+        schedulePersist();
+    }
+
+    /**
+     * query hourly rows with time in [startTime, endTime), in time order.
+     * Time column is start time of the hour.
+     * @param projection projection, null for all columns
+     * @param startTime startTime
+     * @param endTime endTime
+     * @return cursor
+     */
+    public Cursor query(String[] projection, long startTime, long endTime) {
+        return query(projection, startTime, endTime, null, null);
+    }
+
+    /**
+     * query hourly rows with time in [startTime, endTime) matching filter, sorted by order.
+     * @param projection projection, null for all columns
+     * @param startTime startTime
+     * @param endTime endTime
+     * @param filter filter compiled against {@link #getReader()}, null to match all
+     * @param order order compiled against {@link #getReader()}, null or natural for time order,
+     *              its limit applies after ordering as SQL, the oldest rows without DESC
+     * @return cursor
+     */
+    public Cursor query(String[] projection, long startTime, long endTime, Selection.Filter filter, RowOrder order) {
+        String[] columns = projection != null ? projection : mCodec.getColumns();
+        int[] indexes = projection != null ? mCodec.resolve(projection) : null;
+        Range range = snapshot(startTime, endTime);
+        long[][] hours = new long[HOURS][mColumns.length];
+        HourRow candidate = new HourRow();
+        List<HourRow> rows = new ArrayList<>();
+        for (int d = 0; d <= range.blocks.size(); d ++) {
+            long dayStart = d < range.blocks.size() ? range.dayStarts.get(d) : range.todayStart;
+            int mask = d < range.blocks.size() ? decode(range.blocks.get(d), hours) : range.todayMask;
+            long[][] values = d < range.blocks.size() ? hours : range.today;
+            for (int h = 0; h < HOURS; h ++) {
+                long time = dayStart + h * HOUR;
+                if ((mask & (1 << h)) == 0 || time < startTime || time >= endTime) continue;
+                candidate.time = time;
+                candidate.values = values[h];
+                if (filter != null && !filter.matches(mReader, candidate)) continue;
+                // decoded hours are reused by the next day.
+                rows.add(new HourRow(time, values == hours ? values[h].clone() : values[h]));
+            }
+        }
+        if (order != null && order.hasKeys()) {
+            Collections.sort(rows, order.comparator(mReader));
+        } else if (order != null && order.isDescending()) {
+            Collections.reverse(rows);
+        }
+        int count = order != null && order.getLimit() >= 0 ? Math.min(order.getLimit(), rows.size()) : rows.size();
+        RecordCursor recordCursor = new RecordCursor(columns, count);
+        for (int i = 0; i < count; i ++) {
+            HourRow row = rows.get(i);
+            writeHour(recordCursor.newRow(), row.time, row.values, indexes, columns.length);
+        }
+        return recordCursor;
+    }
+
+    /**
+     * write hourly rows with time in [startTime, endTime) matching filter to sink in time order,
+     * decoding one day at a time, so that memory does not grow with the range.
+     * @param projection projection, null for all columns
+     * @param startTime startTime
+     * @param endTime endTime
+     * @param filter filter compiled against {@link #getReader()}, null to match all
+     * @param sink sink, not finished
+     * @throws IOException if sink failed
+     */
+    public void export(String[] projection, long startTime, long endTime, Selection.Filter filter, RowSink sink) throws IOException {
+        String[] columns = projection != null ? projection : mCodec.getColumns();
+        int[] indexes = projection != null ? mCodec.resolve(projection) : null;
+        sink.begin(columns);
+        Range range = snapshot(startTime, endTime);
+        long[][] hours = new long[HOURS][mColumns.length];
+        HourRow candidate = new HourRow();
+        for (int d = 0; d <= range.blocks.size(); d ++) {
+            long dayStart = d < range.blocks.size() ? range.dayStarts.get(d) : range.todayStart;
+            int mask = d < range.blocks.size() ? decode(range.blocks.get(d), hours) : range.todayMask;
+            long[][] values = d < range.blocks.size() ? hours : range.today;
+            for (int h = 0; h < HOURS; h ++) {
+                long time = dayStart + h * HOUR;
+                if ((mask & (1 << h)) == 0 || time < startTime || time >= endTime) continue;
+                candidate.time = time;
+                candidate.values = values[h];
+                if (filter != null && !filter.matches(mReader, candidate)) continue;
+                writeHour(sink, time, values[h], indexes, columns.length);
+                sink.endRow();
+            }
+        }
+    }
+
+    /**
+     * sealed blocks and copy of today overlapping a range, blocks are immutable once sealed.
+     */
+    private static class Range {
+        final List<Long> dayStarts = new ArrayList<>();
+        final List<byte[]> blocks = new ArrayList<>();
+        final long[][] today = new long[HOURS][];
+        long todayStart;
+        int todayMask;
+    }
+
+    private synchronized Range snapshot(long startTime, long endTime) {
+        ensureLoaded();
+        Range range = new Range();
+        // day starting before startTime may have hours in range, 25 hours at most.
+        for (Map.Entry<Long, byte[]> entry : mDays.subMap(startTime - DAY - HOUR, true, endTime, false).entrySet()) {
+            range.dayStarts.add(entry.getKey());
+            range.blocks.add(entry.getValue());
+        }
+        range.todayStart = mDayStart;
+        range.todayMask = mHourMask;
+        for (int h = 0; h < HOURS; h ++) {
+            if ((mHourMask & (1 << h)) != 0) range.today[h] = mHours[h].clone();
+        }
+        return range;
+    }
+
+    /**
+     * hourly row, values of history columns by {@link #mColumns}.
+     */
+    private static class HourRow {
+        long time;
+        long[] values;
+
+        HourRow() {
+        }
+
+        HourRow(long time, long[] values) {
+            this.time = time;
+            this.values = values;
+        }
+    }
+
+    /**
+     * reads hourly rows by columns of data class, columns not kept in history read as 0 or null.
+     */
+    private class HourReader implements ColumnReader<HourRow> {
+
+        @Override
+        public int indexOf(String column) {
+            return mCodec.indexOf(column);
+        }
+
+        @Override
+        public int getType(int index) {
+            return mCodec.getType(index);
+        }
+
+        @Override
+        public long getLong(HourRow row, int index) {
+            if (index == mTimeIndex) return row.time;
+            int column = columnOf(index);
+            if (column < 0) return 0;
+            return mDoubles[column] ? (long) Double.longBitsToDouble(row.values[column]) : row.values[column];
+        }
+
+        @Override
+        public double getDouble(HourRow row, int index) {
+            if (index == mTimeIndex) return row.time;
+            int column = columnOf(index);
+            if (column < 0) return 0;
+            return mDoubles[column] ? Double.longBitsToDouble(row.values[column]) : row.values[column];
+        }
+
+        @Override
+        public String getString(HourRow row, int index) {
+            if (mCodec.getType(index) == AccessorPlan.TYPE_STRING) return null;
+            return mCodec.getType(index) == AccessorPlan.TYPE_DOUBLE
+                    ? String.valueOf(getDouble(row, index)) : String.valueOf(getLong(row, index));
+        }
+    }
+
+    /**
+     * reader of hourly rows, to compile {@link Selection} and {@link RowOrder} of history.
+     * @return reader
+     */
+    public ColumnReader<?> getReader() {
+        return mReader;
+    }
+
+    private void writeHour(RowWriter writer, long time, long[] values, int[] indexes, int columnCount) {
+        for (int i = 0; i < columnCount; i ++) {
+            int index = indexes != null ? indexes[i] : i;
+            int column = index >= 0 ? columnOf(index) : -1;
+            if (index == mTimeIndex) {
+                writer.putLong(i, time);
+            } else if (column < 0) {
+                writer.putNull(i);
+            } else if (mDoubles[column]) {
+                writer.putDouble(i, Double.longBitsToDouble(values[column]));
+            } else {
+                writer.putLong(i, values[column]);
+            }
+        }
+    }
+
+    private int columnOf(int index) {
+        for (int i = 0; i < mColumns.length; i ++) {
+            if (mColumns[i] == index) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * seal current day and load day of dayStart, under lock.
+     * @param dayStart start time of day
+     */
+    private void switchDay(long dayStart) {
+        if (mHourMask != 0) {
+            mDays.put(mDayStart, encode(mHourMask, mHours));
+        }
+        byte[] block = mDays.remove(dayStart);
+        mHourMask = block != null ? decode(block, mHours) : 0;
+        mDayStart = dayStart;
+        mDayEnd = getStartTimeOfDay(dayStart + DAY + HOUR);
+        prune();
+    }
+
+    private void prune() {
+        long oldest = Math.max(mDayStart, mDays.isEmpty() ? mDayStart : mDays.lastKey()) - (mRetentionDays - 1) * DAY - HOUR;
+        while (!mDays.isEmpty() && mDays.firstKey() < oldest) {
+            mDays.pollFirstEntry();
+        }
+    }
+
+    private static long getStartTimeOfDay(long time) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getDefault());
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    byte[] encode(int mask, long[][] hours) {
+        ByteWriter writer = new ByteWriter();
+        writer.writeVarLong(mask);
+        for (int i = 0; i < mColumns.length; i ++) {
+            long previous = 0;
+            for (int h = 0; h < HOURS; h ++) {
+                if ((mask & (1 << h)) == 0) continue;
+                long value = hours[h][i];
+                if (mDoubles[i]) {
+                    long xor = value ^ previous;
+                    if (xor == 0) {
+                        writer.writeByte(0);
+                    } else {
+                        int trailingZeros = Long.numberOfTrailingZeros(xor);
+                        writer.writeByte(trailingZeros + 1);
+                        writer.writeVarLong(xor >>> trailingZeros);
+                    }
+                } else {
+                    long delta = value - previous;
+                    writer.writeVarLong((delta << 1) ^ (delta >> 63));
+                }
+                previous = value;
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * decode block into hours.
+     * @return mask of hours present
+     */
+    int decode(byte[] block, long[][] hours) {
+        int[] position = new int[1];
+        int mask = (int) readVarLong(block, position);
+        for (int i = 0; i < mColumns.length; i ++) {
+            long previous = 0;
+            for (int h = 0; h < HOURS; h ++) {
+                if ((mask & (1 << h)) == 0) continue;
+                long value;
+                if (mDoubles[i]) {
+                    int trailingZeros = (block[position[0] ++] & 0xFF) - 1;
+                    value = trailingZeros < 0 ? previous : previous ^ (readVarLong(block, position) << trailingZeros);
+                } else {
+                    long zigzag = readVarLong(block, position);
+                    value = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+                }
+                hours[h][i] = value;
+                previous = value;
+            }
+        }
+        return mask;
+    }
+
+    private static long readVarLong(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = bytes[position[0] ++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    /**
+     * Growable byte array writer.
+     */
+    private static class ByteWriter {
+        private byte[] mBytes = new byte[64];
+        private int mSize;
+
+        void writeByte(int b) {
+            if (mSize == mBytes.length) mBytes = Arrays.copyOf(mBytes, mSize * 2);
+            mBytes[mSize ++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBytes, mSize);
+        }
+    }
+
+    private File getFile() {
+        return new File(mContentProvider.getContext().getFilesDir(), mFileName);
+    }
+
+    /**
+     * load file ahead of the first access, e.g. on background thread at startup.
+     */
+    public synchronized void preload() {
+        ensureLoaded();
+    }
+
+    /**
+     * load file on first access, under lock.
+     */
+    private void ensureLoaded() {
+        if (mLoaded) return;
+        mLoaded = true;
+        File file = getFile();
+        if (!file.exists()) return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != mLayoutHash) {
+                    Log.d(TAG, "ensureLoaded---layout changed, drop history");
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i ++) {
+                    long dayStart = in.readLong();
+                    byte[] block = new byte[in.readInt()];
+                    in.readFully(block);
+                    mDays.put(dayStart, block);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!mDays.isEmpty()) {
+            // latest day in file becomes today, so that it is updated in place.
+            long latest = mDays.lastKey();
+            mHourMask = decode(mDays.remove(latest), mHours);
+            mDayStart = latest;
+            mDayEnd = getStartTimeOfDay(latest + DAY + HOUR);
+            prune();
+        }
+        Log.d(TAG, "ensureLoaded---days: " + (mDays.size() + (mHourMask != 0 ? 1 : 0)));
+    }
+
+    /**
+     * write history to file now if changed.
+     */
+    public void flush() {
+        synchronized (mPersistLock) {
+            TreeMap<Long, byte[]> days;
+            synchronized (this) {
+                mPersistScheduled = false;
+                if (!mDirty) return;
+                mDirty = false;
+                days = new TreeMap<>(mDays);
+                if (mHourMask != 0) {
+                    days.put(mDayStart, encode(mHourMask, mHours));
+                }
+            }
+            File file = getFile();
+            File tmpFile = new File(file.getPath() + ".tmp");
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(mLayoutHash);
+                    out.writeInt(days.size());
+                    for (Map.Entry<Long, byte[]> entry : days.entrySet()) {
+                        out.writeLong(entry.getKey());
+                        out.writeInt(entry.getValue().length);
+                        out.write(entry.getValue());
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("rename failed: " + tmpFile);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                // not persisted, retry later unless a newer write scheduled it already.
+                synchronized (this) {
+                    mDirty = true;
+                    schedulePersist();
+                }
+            }
+        }
+    }
+
+    /**
+     * schedule writing file after {@link #PERSIST_DELAY}, under lock.
+     */
+    private void schedulePersist() {
+        if (!mPersistScheduled) {
+            mPersistScheduled = true;
+            ProviderExecutors.background().schedule(mPersistRunnable, PERSIST_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.goverse.provider.adapter;
+
+/**
+ * Writer of one cursor row, receiving typed column values without boxing.
+ */
+public interface RowWriter {
+
+    void putLong(int column, long value);
+
+    void putDouble(int column, double value);
+
+    void putString(int column, String value);
+
+    void putNull(int column);
+}
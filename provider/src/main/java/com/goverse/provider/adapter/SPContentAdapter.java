@@ -5,20 +5,24 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.database.MatrixCursor;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
 import com.goverse.provider.ContentAdapter;
+import com.goverse.provider.selection.Selection;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -27,124 +31,331 @@ public abstract class SPContentAdapter<T> extends ContentAdapter {
 
     protected final String TAG = this.getClass().getSimpleName();
 
+    /**
+     * Policy of keeping deserialized object in memory.
+     */
+    public enum CachePolicy {
+        /**
+         * read and deserialize from sharedPreference every time.
+         */
+        NONE,
+        /**
+         * keep deserialized object as an immutable snapshot, written through on serialize.
+         */
+        SNAPSHOT
+    }
+
+    /**
+     * Durability of {@link #serialize(Object, String, String)}.
+     */
+    public enum DurabilityMode {
+        /**
+         * commit to sharedPreference on calling thread.
+         */
+        SYNC,
+        /**
+         * coalesce writes and commit them in group on background thread, see {@link GroupCommitter}.
+         */
+        WRITE_BEHIND
+    }
+
+    /**
+     * Deserialized object with its json, never modified after published.
+     */
+    private static class Snapshot<T> {
+        final T value;
+        final String json;
+        /**
+         * increased by every write of the key, compared by {@link #atomicUpdate}.
+         */
+        final long version;
+
+        Snapshot(T value, String json, long version) {
+            this.value = value;
+            this.json = json;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Read-modify-write of a stored object, see {@link #atomicUpdate(String, String, Class, Mutation)}.
+     * @param <T> data class
+     */
+    public interface Mutation<T> {
+        /**
+         * modify object, may be called more than once if other writers commit first.
+         * @param t private copy of current object, null if not stored
+         * @return object to store, may be t, null to keep current object
+         */
+        T mutate(T t);
+    }
+
+    /**
+     * optimistic attempts of {@link #atomicUpdate} before holding the lock across the mutation.
+     */
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 3;
+
+    private static final int LOCK_STRIPES = 16;
+
+    /**
+     * locks of writes by key hash, writes of different keys rarely wait for each other.
+     */
+    private final Object[] mLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * prefix of value encrypted by {@link RecordCipher}, value without it is plain json.
+     */
+    private static final String ENCRYPTED_PREFIX = "$E1$";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private Gson mGson = new Gson();
 
+    private volatile RecordCipher mRecordCipher;
+
+    private final ConcurrentHashMap<String, Snapshot<T>> mSnapshots = new ConcurrentHashMap<>();
+
+    private volatile GroupCommitter mGroupCommitter;
+
+    /**
+     * writes serialized in batch on current thread, persisted in one commit on {@link #endBatch()}.
+     */
+    private final ThreadLocal<Map<String, String>> mBatchWrites = new ThreadLocal<>();
+
     public SPContentAdapter(ContentProvider contentProvider) {
         super(contentProvider);
+        for (int i = 0; i < LOCK_STRIPES; i ++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    private Object lockOf(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return mLocks[hash & (LOCK_STRIPES - 1)];
     }
 
     /**
-     * set ContentValues
-     * 插入或更新 sharedPreference存储对象的值
-     * @param t 更新对象
-     * @param contentValues 插入或更新字段，对应于对象属性
+     * cache policy of this adapter, override to disable cache
+     * when sharedPreference is modified by others.
+     * @return cachePolicy
      */
-    public void setContentValues(T t, ContentValues contentValues) {
+    protected CachePolicy cachePolicy() {
+        return CachePolicy.SNAPSHOT;
+    }
 
-        Set<String> keys = contentValues.keySet();
-        for (String key : keys) {
-            try {
-                Field field = t.getClass().getField(key);
-                Class<?> type = field.getType();
-                String name = field.getName();
-                if (type == Long.TYPE) {
-                    Long asLong = contentValues.getAsLong(name);
-                    if (asLong != null) {
-                        field.setLong(t, asLong);
-                    }
-                } else if (type == Integer.TYPE) {
-                    Integer asInteger = contentValues.getAsInteger(name);
-                    if (asInteger != null) {
-                        field.setInt(t, asInteger);
-                    }
-                }  else if (type == Double.TYPE) {
-                    Double asDouble = contentValues.getAsDouble(name);
-                    if (asDouble != null) {
-                        field.setDouble(t, asDouble);
-                    }
-                } else if (type == Boolean.TYPE) {
-                    Boolean asBoolean = contentValues.getAsBoolean(name);
-                    if (asBoolean != null) {
-                        field.setBoolean(t, asBoolean);
-                    }
-                } else if (type == String.class) {
-                    field.set(t, Objects.toString(contentValues.getAsString(name),""));
+    /**
+     * durability mode of this adapter.
+     * @return durabilityMode
+     */
+    protected DurabilityMode durabilityMode() {
+        return DurabilityMode.SYNC;
+    }
+
+    /**
+     * max delay in millis before pending writes are committed in {@link DurabilityMode#WRITE_BEHIND}.
+     * @return maxDelay
+     */
+    protected long writeBehindMaxDelay() {
+        return 1000;
+    }
+
+    /**
+     * max count of writes to be coalesced into one commit in {@link DurabilityMode#WRITE_BEHIND}.
+     * @return maxBatch
+     */
+    protected int writeBehindMaxBatch() {
+        return 32;
+    }
+
+    /**
+     * key to encrypt values at rest with AES-GCM, null to store plain json.
+     * Plain values stored before are still read, and encrypted on next write.
+     * Snapshots in memory are kept plain.
+     * The nonce is generated by the cipher, so that keys requiring randomized encryption work,
+     * such as an AES key of AndroidKeyStore with GCM block mode and no padding.
+     * @return secretKey, e.g. an AES key of AndroidKeyStore
+     */
+    protected SecretKey encryptionKey() {
+        return null;
+    }
+
+    private RecordCipher getRecordCipher() {
+        if (mRecordCipher == null) {
+            SecretKey secretKey = encryptionKey();
+            if (secretKey == null) return null;
+            synchronized (this) {
+                if (mRecordCipher == null) {
+                    mRecordCipher = new RecordCipher(secretKey);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
             }
         }
+        return mRecordCipher;
+    }
 
+    /**
+     * convert json to value stored in sharedPreference, encrypted if {@link #encryptionKey()} is set.
+     * sharedPreference only stores strings, so that ciphertext is Base64 encoded.
+     * @param key sharedPreference key, authenticated with the value
+     * @param json json
+     * @return stored value
+     */
+    private String toStoredValue(String key, String json) {
+        RecordCipher recordCipher = getRecordCipher();
+        if (recordCipher == null) return json;
+        try {
+            byte[] encrypted = recordCipher.encrypt(json.getBytes(UTF_8), key.getBytes(UTF_8));
+            return ENCRYPTED_PREFIX + Base64.encodeToString(encrypted, Base64.NO_WRAP);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to encrypt " + key, e);
+        }
     }
 
-    public Cursor buildCursor(String[] projection, T t) {
+    /**
+     * convert value stored in sharedPreference to json.
+     * @param key sharedPreference key
+     * @param value stored value
+     * @return json, null if value can not be decrypted
+     */
+    private String fromStoredValue(String key, String value) {
+        if (value == null || !value.startsWith(ENCRYPTED_PREFIX)) return value;
+        RecordCipher recordCipher = getRecordCipher();
+        if (recordCipher == null) {
+            Log.d(TAG, "fromStoredValue---no key to decrypt " + key);
+            return null;
+        }
+        try {
+            byte[] encrypted = Base64.decode(value.substring(ENCRYPTED_PREFIX.length()), Base64.NO_WRAP);
+            return new String(recordCipher.decrypt(encrypted, key.getBytes(UTF_8)), UTF_8);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-        Log.d(TAG, "buildCursor");
-        String[] columns = null;
-        List<Object> rows = new ArrayList<>();
-        List<String> columnList = new ArrayList<>();
-        //projection为null, 默认查询全部字段
-        if (projection == null) {
-            Field[] fields = t.getClass().getFields();
-            for (int i = 0 ; i < fields.length; i ++) {
-                columnList.add(fields[i].getName());
-                rows.add(getFieldValue(fields[i], t));
+    private GroupCommitter getGroupCommitter() {
+        if (mGroupCommitter == null) {
+            synchronized (this) {
+                if (mGroupCommitter == null) {
+                    mGroupCommitter = new GroupCommitter(getSharedPreferences(), writeBehindMaxDelay(), writeBehindMaxBatch());
+                }
+            }
+        }
+        return mGroupCommitter;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (mBatchWrites.get() == null) {
+            mBatchWrites.set(new LinkedHashMap<String, String>());
+        }
+    }
+
+    @Override
+    public void endBatch() {
+        Map<String, String> batchWrites = mBatchWrites.get();
+        mBatchWrites.remove();
+        if (batchWrites == null || batchWrites.isEmpty()) return;
+        if (durabilityMode() == DurabilityMode.WRITE_BEHIND) {
+            GroupCommitter groupCommitter = getGroupCommitter();
+            for (Map.Entry<String, String> entry : batchWrites.entrySet()) {
+                groupCommitter.put(entry.getKey(), entry.getValue());
             }
         } else {
-            for (int i =0; i < projection.length; i ++) {
-                String proj = projection[i];
-                columnList.add(projection[i]);
-                Field field = null;
-                try {
-                    field = t.getClass().getField(proj);
-                } catch (NoSuchFieldException e) {
-                    e.printStackTrace();
-                }
-                rows.add(getFieldValue(field, t));
+            SharedPreferences.Editor editor = getSharedPreferences().edit();
+            for (Map.Entry<String, String> entry : batchWrites.entrySet()) {
+                editor.putString(entry.getKey(), entry.getValue());
             }
+            editor.commit();
         }
-        if (rows.size() != 0) {
-            String[] tempList = new String[columnList.size()];
-            columns = columnList.toArray(tempList);
-            MatrixCursor matrixCursor = new MatrixCursor(columns, 1);
-            matrixCursor.addRow(rows);
-            return matrixCursor;
+    }
+
+    /**
+     * commit writes pending in {@link DurabilityMode#WRITE_BEHIND}, returns after they are persisted.
+     */
+    @Override
+    public void flush() {
+        GroupCommitter groupCommitter = mGroupCommitter;
+        if (groupCommitter != null) {
+            groupCommitter.flush();
         }
-        return null;
     }
 
-    private Object getFieldValue(Field field, Object object) {
+    /**
+     * set ContentValues
+     * 插入或更新 sharedPreference存储对象的值
+     * @param t 更新对象
+     * @param contentValues 插入或更新字段，对应于对象属性
+     */
+    public void setContentValues(T t, ContentValues contentValues) {
+
+        getCodec(t).apply(t, contentValues);
+    }
+
+    public Cursor buildCursor(String[] projection, T t) {
+
+        Log.d(TAG, "buildCursor");
+        RecordCodec<T> codec = getCodec(t);
+        //projection为null, 默认查询全部字段
+        String[] columns = projection != null ? projection : codec.getColumns();
+        if (columns.length == 0) return null;
+        int[] indexes = projection != null ? codec.resolve(projection) : null;
+        RecordCursor recordCursor = new RecordCursor(columns, 1);
+        codec.writeRow(t, indexes, recordCursor.newRow());
+        return recordCursor;
+    }
+
+    /**
+     * build cursor of record if it matches selection, otherwise an empty cursor.
+     * @param projection projection
+     * @param selection selection, see {@link Selection}
+     * @param selectionArgs selectionArgs
+     * @param t record
+     * @return cursor
+     * @throws IllegalArgumentException if selection is unsupported
+     */
+    public Cursor buildCursor(String[] projection, String selection, String[] selectionArgs, T t) {
+        RecordCodec<T> codec = getCodec(t);
+        Selection.Filter filter = Selection.compile(selection, codec).bind(selectionArgs);
+        if (filter.matches(codec, t)) {
+            return buildCursor(projection, t);
+        }
+        String[] columns = projection != null ? projection : codec.getColumns();
+        return columns.length > 0 ? new RecordCursor(columns, 1) : null;
+    }
 
-        if (field == null || object == null) return null;
-        Class<?> type = field.getType();
-        Object value = null;
+    @SuppressWarnings("unchecked")
+    private RecordCodec<T> getCodec(T t) {
+        return RecordCodecs.of((Class<T>) t.getClass());
+    }
+
+    private String toJson(T t) {
+        if (t == null) return mGson.toJson(null);
+        TypeAdapter<T> typeAdapter = getCodec(t).getTypeAdapter();
+        return typeAdapter != null ? typeAdapter.toJson(t) : mGson.toJson(t);
+    }
+
+    private T fromJson(String json, Class<T> cls) {
+        TypeAdapter<T> typeAdapter = RecordCodecs.of(cls).getTypeAdapter();
+        if (typeAdapter == null) return mGson.fromJson(json, cls);
         try {
-            if (type == Long.TYPE) {
-                value = field.getLong(object);
-            } else if (type == Integer.TYPE) {
-                value = field.getInt(object);
-            } else if (type == Double.TYPE) {
-                value = field.getDouble(object);
-            } else if (type == Boolean.TYPE) {
-                value = field.getBoolean(object);
-            } else if (type == String.class) {
-                value = field.get(object);
-            }
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            return null;
+            return typeAdapter.fromJson(json);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
         }
-        return value;
     }
 
     /**
      * sharedPreference 通用加密算法
+     * @deprecated unauthenticated with static iv, use {@link #encryptionKey()}
+     * to encrypt values automatically in serialize and deSerialize.
      * @param encryptStr 加密字符串
      * @param secret secret
      * @param iv vector
      * @return 加密后字符串
      * @throws Exception
      */
+    @Deprecated
     protected String encrypt(String encryptStr, byte[] secret, byte[] iv) throws Exception {
 
         Cipher cipher = Cipher.getInstance("AES/CBC/PKCS7Padding");
@@ -169,12 +380,14 @@ public abstract class SPContentAdapter<T> extends ContentAdapter {
 
     /**
      * sharedPreference 通用解密算法
+     * @deprecated see {@link #encrypt(String, byte[], byte[])}.
      * @param decodeStr 解码字符串
      * @param secret secret
      * @param iv vector
      * @return 解密后字符串
      * @throws Exception
      */
+    @Deprecated
     protected String decode(String decodeStr, byte[] secret, byte[] iv) throws Exception {
         byte[] encrypted = Base64.decode(decodeStr, Base64.DEFAULT);
         Cipher cipher = Cipher.getInstance("AES/CBC/PKCS7Padding");
@@ -188,22 +401,96 @@ public abstract class SPContentAdapter<T> extends ContentAdapter {
 
     /**
      * sharedPreference 序列化方法
+     * With {@link CachePolicy#SNAPSHOT}, t becomes the cached snapshot and must not be modified afterwards.
+     * Concurrent read-modify-write of the same key must use {@link #atomicUpdate} instead.
      * @param t 序列化对象
      * @param spName sharedPreference文件名
      * @param key sharedPreference key值
      */
     protected void serialize(T t, String spName, String key) {
 
-        String jsonT = mGson.toJson(t);
+        String jsonT = toJson(t);
         Log.d(TAG, "serialize---jsonT: " + jsonT);
         if (!TextUtils.isEmpty(jsonT)) {
-            SharedPreferences sp = getContentProvider().getContext().getSharedPreferences("", Context.MODE_PRIVATE);
-            sp.edit().putString(key, jsonT).commit();
+            String value = toStoredValue(key, jsonT);
+            synchronized (lockOf(key)) {
+                store(t, key, jsonT, value);
+            }
+        }
+    }
+
+    /**
+     * store value and publish snapshot, under lock of key so that stores and versions are in the same order.
+     */
+    private void store(T t, String key, String json, String value) {
+        Map<String, String> batchWrites = mBatchWrites.get();
+        if (batchWrites != null) {
+            batchWrites.put(key, value);
+        } else if (durabilityMode() == DurabilityMode.WRITE_BEHIND) {
+            getGroupCommitter().put(key, value);
+        } else {
+            getSharedPreferences().edit().putString(key, value).commit();
+        }
+        if (cachePolicy() == CachePolicy.SNAPSHOT) {
+            Snapshot<T> previous = mSnapshots.get(key);
+            mSnapshots.put(key, new Snapshot<>(t, json, previous != null ? previous.version + 1 : 1));
+        }
+        if (t != null) {
+            onStored(key, t);
+        }
+    }
+
+    /**
+     * Called after object of key is stored, still under lock of key,
+     * so that calls are in the same order as stores. Must be quick and not store again.
+     * @param key sharedPreference key值
+     * @param t object stored, which must not be modified
+     */
+    protected void onStored(String key, T t) {
+    }
+
+    /**
+     * atomically read, modify and write object of key, no update is lost between concurrent writers.
+     * With {@link CachePolicy#SNAPSHOT}, the mutation runs on a private copy without lock, and the result
+     * is stored only if no other write has been stored since the copy was read, otherwise it is retried.
+     * After {@link #MAX_OPTIMISTIC_ATTEMPTS} conflicts, or without snapshot, the mutation runs under
+     * the lock of key. Readers never take the lock.
+     * @param spName sharedPreference文件名
+     * @param key sharedPreference key值
+     * @param cls data class
+     * @param mutation mutation
+     * @return object stored, which must not be modified, null if mutation kept current object
+     */
+    protected T atomicUpdate(String spName, String key, Class<T> cls, Mutation<T> mutation) {
+        if (cachePolicy() == CachePolicy.SNAPSHOT) {
+            for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt ++) {
+                Snapshot<T> snapshot = loadSnapshot(key, cls);
+                T t = mutation.mutate(!TextUtils.isEmpty(snapshot.json) ? fromJson(snapshot.json, cls) : null);
+                if (t == null) return null;
+                String json = toJson(t);
+                String value = toStoredValue(key, json);
+                synchronized (lockOf(key)) {
+                    Snapshot<T> current = mSnapshots.get(key);
+                    if (current != null && current.version == snapshot.version) {
+                        store(t, key, json, value);
+                        return t;
+                    }
+                }
+                Log.d(TAG, "atomicUpdate---conflict of " + key + ", attempt: " + attempt);
+            }
+        }
+        synchronized (lockOf(key)) {
+            T t = mutation.mutate(deSerialize(spName, key, cls));
+            if (t == null) return null;
+            String json = toJson(t);
+            store(t, key, json, toStoredValue(key, json));
+            return t;
         }
     }
 
     /**
      * sharedPreference 反序列化方法
+     * returns a private copy which is free to modify.
      * @param spName sharedPreference文件名
      * @param key sharedPreference key值
      * @return 序列化对象
@@ -211,14 +498,80 @@ public abstract class SPContentAdapter<T> extends ContentAdapter {
     protected T deSerialize(String spName, String key, Class<T> cls) {
 
         Log.d(TAG, "deSerialize");
-        SharedPreferences sp = getContentProvider().getContext().getSharedPreferences("", Context.MODE_PRIVATE);
-        String json = sp.getString(key, null);
+        String json = cachePolicy() == CachePolicy.SNAPSHOT ? loadSnapshot(key, cls).json : readJson(key);
         T t = null;
         if (!TextUtils.isEmpty(json)) {
-            t = mGson.fromJson(json, cls);
+            t = fromJson(json, cls);
         }
         return t;
     }
 
+    /**
+     * read object shared with other readers, which must not be modified.
+     * Only a pointer load with {@link CachePolicy#SNAPSHOT}.
+     * @param spName sharedPreference文件名
+     * @param key sharedPreference key值
+     * @return 序列化对象
+     */
+    protected T readSnapshot(String spName, String key, Class<T> cls) {
+
+        if (cachePolicy() == CachePolicy.SNAPSHOT) {
+            return loadSnapshot(key, cls).value;
+        }
+        return deSerialize(spName, key, cls);
+    }
+
+    /**
+     * load sharedPreference, cipher, codec and snapshot of key ahead of the first request,
+     * called in {@link #prewarm()} of subclass.
+     * @param key sharedPreference key值
+     * @param cls data class
+     */
+    protected void prewarm(String key, Class<T> cls) {
+        if (RecordCodecs.of(cls).getTypeAdapter() == null) {
+            mGson.getAdapter(cls);
+        }
+        if (cachePolicy() == CachePolicy.SNAPSHOT) {
+            loadSnapshot(key, cls);
+        } else {
+            readJson(key);
+        }
+    }
+
+    private Snapshot<T> loadSnapshot(String key, Class<T> cls) {
+        Snapshot<T> snapshot = mSnapshots.get(key);
+        if (snapshot == null) {
+            String json = readJson(key);
+            T t = null;
+            if (!TextUtils.isEmpty(json)) {
+                t = fromJson(json, cls);
+            }
+            snapshot = new Snapshot<>(t, json, 0);
+            Snapshot<T> previous = mSnapshots.putIfAbsent(key, snapshot);
+            if (previous != null) snapshot = previous;
+        }
+        return snapshot;
+    }
+
+    private String readJson(String key) {
+        return fromStoredValue(key, readStoredValue(key));
+    }
+
+    private String readStoredValue(String key) {
+        Map<String, String> batchWrites = mBatchWrites.get();
+        if (batchWrites != null && batchWrites.containsKey(key)) {
+            return batchWrites.get(key);
+        }
+        GroupCommitter groupCommitter = mGroupCommitter;
+        if (groupCommitter != null && groupCommitter.hasPending(key)) {
+            return groupCommitter.getPending(key);
+        }
+        return getSharedPreferences().getString(key, null);
+    }
+
+    private SharedPreferences getSharedPreferences() {
+        return getContentProvider().getContext().getSharedPreferences("", Context.MODE_PRIVATE);
+    }
+
 
 }
@@ -4,7 +4,14 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.util.Log;
 import androidx.annotation.Nullable;
+import com.goverse.provider.adapter.RecordHistory;
 import com.goverse.provider.adapter.SPContentAdapter;
+import com.goverse.provider.annotation.ContentRecord;
+import com.goverse.provider.export.RowSink;
+import com.goverse.provider.selection.RowOrder;
+import com.goverse.provider.selection.Selection;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.TimeZone;
 
@@ -16,7 +23,23 @@ public class OpenDataAdapter extends SPContentAdapter<OpenDataAdapter.OpenData>
 
     public static final String READ_SCOPE = "READ_OPEN_DATA";
 
+    /**
+     * selection of hourly history, with start and end time in millis as selectionArgs,
+     * each row holds the latest values of the hour and timeStamp of the hour start.
+     * It may be followed by AND and more conditions on history rows, with their args after the times,
+     * e.g. "timeStamp >= ? AND timeStamp < ? AND step > ?", sortOrder is applied to history rows.
+     */
+    public static final String SELECTION_TIME_RANGE = "timeStamp >= ? AND timeStamp < ?";
+
+    /**
+     * days of history kept, including today.
+     */
+    private static final int HISTORY_RETENTION_DAYS = 30;
+
+    private final RecordHistory<OpenData> mHistory;
+
 
+    @ContentRecord
     static class OpenData {
         public long timeStamp = System.currentTimeMillis();
         public long step;
@@ -40,22 +63,106 @@ public class OpenDataAdapter extends SPContentAdapter<OpenDataAdapter.OpenData>
 
     public OpenDataAdapter(ContentProvider contentProvider) {
         super(contentProvider);
+        mHistory = new RecordHistory<>(contentProvider, "open_data_history", OpenData.class, "timeStamp", HISTORY_RETENTION_DAYS);
+    }
+
+    @Override
+    public void prewarm() {
+        prewarm(KEY_OPEN, OpenData.class);
+        mHistory.preload();
     }
 
     @Override
     public Cursor query(@Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
 
-        OpenData openData = deSerialize(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class);
+        if (isTimeRange(selection)) {
+            return queryHistory(projection, selection, selectionArgs, sortOrder);
+        }
+        OpenData openData = readSnapshot(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class);
         Log.d(TAG, "query---sportData: " + openData);
         if (openData == null) openData = new OpenData();
         if (!checkDateValid(openData.timeStamp)) {
-            openData.reset();
-            serialize(openData, PREFERENCE_OPEN_PROVIDER, KEY_OPEN);
+            // a write of today may be stored after the read above, reset only if it is not.
+            OpenData resetData = atomicUpdate(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class, mResetMutation);
+            openData = resetData != null ? resetData : readSnapshot(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class);
+            if (openData == null) openData = new OpenData();
         }
-        Cursor cursor = buildCursor(projection, openData);
+        Cursor cursor = buildCursor(projection, selection, selectionArgs, openData);
         return cursor;
     }
 
+    private static boolean isTimeRange(String selection) {
+        if (selection == null) return false;
+        String trimmed = selection.trim();
+        if (!trimmed.regionMatches(true, 0, SELECTION_TIME_RANGE, 0, SELECTION_TIME_RANGE.length())) return false;
+        return trimmed.length() == SELECTION_TIME_RANGE.length() || Character.isWhitespace(trimmed.charAt(SELECTION_TIME_RANGE.length()));
+    }
+
+    /**
+     * compile conditions following the time range against history rows.
+     * @return filter, null if there is no condition
+     */
+    private Selection.Filter historyFilter(String selection, String[] selectionArgs) {
+        String rest = selection.trim().substring(SELECTION_TIME_RANGE.length()).trim();
+        if (rest.isEmpty()) return null;
+        if (!rest.regionMatches(true, 0, "AND", 0, 3) || rest.length() == 3 || !Character.isWhitespace(rest.charAt(3))) {
+            throw new IllegalArgumentException("conditions must follow time range by AND: " + selection);
+        }
+        String[] restArgs = Arrays.copyOfRange(selectionArgs, 2, selectionArgs.length);
+        return Selection.compile(rest.substring(3), mHistory.getReader()).bind(restArgs);
+    }
+
+    private Cursor queryHistory(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (selectionArgs == null || selectionArgs.length < 2) return null;
+        long startTime;
+        long endTime;
+        try {
+            startTime = Long.parseLong(selectionArgs[0]);
+            endTime = Long.parseLong(selectionArgs[1]);
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return mHistory.query(projection, startTime, endTime, historyFilter(selection, selectionArgs),
+                RowOrder.compile(sortOrder, mHistory.getReader()));
+    }
+
+    /**
+     * history of a time range in time order is streamed day by day,
+     * other selections and sorted history are exported as query.
+     */
+    @Override
+    public void export(@Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs,
+                       @Nullable String sortOrder, RowSink sink) throws IOException {
+        if (isTimeRange(selection) && selectionArgs != null && selectionArgs.length >= 2 && sortOrder == null) {
+            long startTime;
+            long endTime;
+            try {
+                startTime = Long.parseLong(selectionArgs[0]);
+                endTime = Long.parseLong(selectionArgs[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid time range: " + selectionArgs[0] + ", " + selectionArgs[1], e);
+            }
+            mHistory.export(projection, startTime, endTime, historyFilter(selection, selectionArgs), sink);
+            sink.finish();
+            return;
+        }
+        super.export(projection, selection, selectionArgs, sortOrder, sink);
+    }
+
+    /**
+     * today's data resets at the start of next day, other changes come by writes.
+     * @return millis until next day
+     */
+    @Override
+    public long queryCacheTtl() {
+        long now = System.currentTimeMillis();
+        Calendar calendar = Calendar.getInstance(TimeZone.getDefault());
+        calendar.setTimeInMillis(getStartTimeOfDay(now, TimeZone.getDefault()));
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return Math.max(0, calendar.getTimeInMillis() - now);
+    }
+
     /**
      * checkDateValid
      * check if the save time is same day compared to today
@@ -91,14 +198,8 @@ public class OpenDataAdapter extends SPContentAdapter<OpenDataAdapter.OpenData>
 
         Log.d(TAG, "insert");
         if (values == null) return false;
-        OpenData openData = deSerialize(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class);
-        if (openData == null) {
-            openData = new OpenData();
-        }
         try {
-            openData.timeStamp = System.currentTimeMillis();
-            setContentValues(openData, values);
-            serialize(openData, PREFERENCE_OPEN_PROVIDER, KEY_OPEN);
+            atomicUpdate(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class, newMutation(values));
         } catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -111,15 +212,9 @@ public class OpenDataAdapter extends SPContentAdapter<OpenDataAdapter.OpenData>
         Log.d(TAG, "update");
 
         if (values == null) return 0;
-        OpenData openData = deSerialize(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class);
-        Log.d(TAG, "sportData：" + openData);
-        if (openData == null) {
-            openData = new OpenData();
-        }
         try {
-            openData.timeStamp = System.currentTimeMillis();
-            setContentValues(openData, values);
-            serialize(openData, PREFERENCE_OPEN_PROVIDER, KEY_OPEN);
+            OpenData openData = atomicUpdate(PREFERENCE_OPEN_PROVIDER, KEY_OPEN, OpenData.class, newMutation(values));
+            Log.d(TAG, "sportData：" + openData);
         } catch (Exception e) {
             e.printStackTrace();
             return 0;
@@ -127,6 +222,44 @@ public class OpenDataAdapter extends SPContentAdapter<OpenDataAdapter.OpenData>
         return 1;
     }
 
+    /**
+     * record history in the order of stores, so that an hour keeps the value stored last.
+     */
+    @Override
+    protected void onStored(String key, OpenData openData) {
+        mHistory.record(openData);
+    }
+
+    /**
+     * reset data of a previous day, keeping step goal, null if data is of today already.
+     */
+    private final Mutation<OpenData> mResetMutation = new Mutation<OpenData>() {
+        @Override
+        public OpenData mutate(OpenData openData) {
+            if (openData == null || checkDateValid(openData.timeStamp)) return null;
+            OpenData resetData = new OpenData();
+            resetData.stepGoal = openData.stepGoal;
+            return resetData;
+        }
+    };
+
+    /**
+     * apply values to current data, concurrent writers each see the data written by the others.
+     */
+    private Mutation<OpenData> newMutation(final ContentValues values) {
+        return new Mutation<OpenData>() {
+            @Override
+            public OpenData mutate(OpenData openData) {
+                if (openData == null) {
+                    openData = new OpenData();
+                }
+                openData.timeStamp = System.currentTimeMillis();
+                setContentValues(openData, values);
+                return openData;
+            }
+        };
+    }
+
     @Override
     public int delete(@Nullable String selection, @Nullable String[] selectionArgs) {
         Log.d(TAG, "delete");
@@ -134,6 +267,18 @@ public class OpenDataAdapter extends SPContentAdapter<OpenDataAdapter.OpenData>
         return 1;
     }
 
+    @Override
+    public void flush() {
+        super.flush();
+        mHistory.flush();
+    }
+
+    @Override
+    protected DurabilityMode durabilityMode() {
+        // step and calorie are written several times a second.
+        return DurabilityMode.WRITE_BEHIND;
+    }
+
     @Override
     public String readScope() {
         return READ_SCOPE;
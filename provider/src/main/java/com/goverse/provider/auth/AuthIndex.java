@@ -0,0 +1,170 @@
+package com.goverse.provider.auth;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable permission decision index compiled from {@link AuthScope} configuration.
+ * Scopes are interned to int ids, and every caller's grant keeps an operation mask
+ * per scope id, so that a permission check is a couple of hash and array lookups.
+ * Callers who failed identity check are remembered by uid to reject them early.
+ */
+public class AuthIndex {
+
+    /**
+     * scope id for scope not granted to any caller.
+     */
+    public static final int NO_SCOPE = -1;
+
+    /**
+     * max size of denied caller cache.
+     */
+    private static final int MAX_DENIED_SIZE = 256;
+
+    /**
+     * Grant compiled from one {@link AuthScope.Configuration}.
+     */
+    public static class Grant {
+        /**
+         * raw sha1 digests of caller's signing certificate.
+         */
+        public final byte[][] digests;
+
+        /**
+         * operation mask indexed by scope id, see PermissionChecker FLAG_CONTENT_*.
+         */
+        public final byte[] operations;
+
+        Grant(byte[][] digests, byte[] operations) {
+            this.digests = digests;
+            this.operations = operations;
+        }
+
+        public boolean allows(int scopeId, byte flag) {
+            return scopeId >= 0 && scopeId < operations.length && (operations[scopeId] & flag) != 0;
+        }
+    }
+
+    /**
+     * Caller entry, consisting of white list grant and caller list grant.
+     */
+    public static class Caller {
+        public final String packageName;
+        public final Grant white;
+        public final Grant normal;
+
+        Caller(String packageName, Grant white, Grant normal) {
+            this.packageName = packageName;
+            this.white = white;
+            this.normal = normal;
+        }
+    }
+
+    private final Map<String, Integer> mScopeIds;
+
+    private final Map<String, Caller> mCallers;
+
+    private final ConcurrentHashMap<String, Integer> mDeniedCallers = new ConcurrentHashMap<>();
+
+    private AuthIndex(Map<String, Integer> scopeIds, Map<String, Caller> callers) {
+        mScopeIds = scopeIds;
+        mCallers = callers;
+    }
+
+    /**
+     * compile configuration into index.
+     * @param whiteListConfigMap caller white list
+     * @param callerListConfigMap caller list
+     * @return index
+     */
+    public static AuthIndex compile(Map<String, AuthScope.Configuration> whiteListConfigMap,
+                                    Map<String, AuthScope.Configuration> callerListConfigMap) {
+        Map<String, Integer> scopeIds = new HashMap<>();
+        internScopes(scopeIds, whiteListConfigMap);
+        internScopes(scopeIds, callerListConfigMap);
+
+        Map<String, Caller> callers = new HashMap<>();
+        if (whiteListConfigMap != null) {
+            for (Map.Entry<String, AuthScope.Configuration> entry : whiteListConfigMap.entrySet()) {
+                Grant normal = compileGrant(scopeIds, callerListConfigMap != null ? callerListConfigMap.get(entry.getKey()) : null);
+                callers.put(entry.getKey(), new Caller(entry.getKey(), compileGrant(scopeIds, entry.getValue()), normal));
+            }
+        }
+        if (callerListConfigMap != null) {
+            for (Map.Entry<String, AuthScope.Configuration> entry : callerListConfigMap.entrySet()) {
+                if (callers.containsKey(entry.getKey())) continue;
+                callers.put(entry.getKey(), new Caller(entry.getKey(), null, compileGrant(scopeIds, entry.getValue())));
+            }
+        }
+        return new AuthIndex(Collections.unmodifiableMap(scopeIds), Collections.unmodifiableMap(callers));
+    }
+
+    private static void internScopes(Map<String, Integer> scopeIds, Map<String, AuthScope.Configuration> configMap) {
+        if (configMap == null) return;
+        for (AuthScope.Configuration configuration : configMap.values()) {
+            if (configuration == null || configuration.scopes == null) continue;
+            for (String scope : configuration.scopes) {
+                if (scope != null && !scopeIds.containsKey(scope)) {
+                    scopeIds.put(scope, scopeIds.size());
+                }
+            }
+        }
+    }
+
+    private static Grant compileGrant(Map<String, Integer> scopeIds, AuthScope.Configuration configuration) {
+        if (configuration == null) return null;
+        byte[] operations = new byte[scopeIds.size()];
+        List<String> scopes = configuration.scopes;
+        if (scopes != null) {
+            for (String scope : scopes) {
+                if (scope == null) continue;
+                int id = scopeIds.get(scope);
+                operations[id] |= configuration.operations;
+            }
+        }
+        return new Grant(configuration.getSha1Digests(), operations);
+    }
+
+    /**
+     * get interned id of scope.
+     * @param scope scope
+     * @return scope id, {@link #NO_SCOPE} if no caller is granted the scope
+     */
+    public int getScopeId(String scope) {
+        Integer id = mScopeIds.get(scope);
+        return id != null ? id : NO_SCOPE;
+    }
+
+    public Caller getCaller(String packageName) {
+        return mCallers.get(packageName);
+    }
+
+    /**
+     * whether caller has been denied for identity before.
+     * @param packageName packageName
+     * @param uid calling uid
+     * @return isDenied
+     */
+    public boolean isDenied(String packageName, int uid) {
+        Integer deniedUid = mDeniedCallers.get(packageName);
+        return deniedUid != null && deniedUid == uid;
+    }
+
+    public void deny(String packageName, int uid) {
+        if (mDeniedCallers.size() >= MAX_DENIED_SIZE) {
+            mDeniedCallers.clear();
+        }
+        mDeniedCallers.put(packageName, uid);
+    }
+
+    public void forget(String packageName) {
+        mDeniedCallers.remove(packageName);
+    }
+
+    public void forgetAll() {
+        mDeniedCallers.clear();
+    }
+}
@@ -1,46 +1,177 @@
 package com.goverse.provider.auth;
+import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.goverse.provider.adapter.open.OpenDataAdapter;
+import com.goverse.provider.permission.PermissionChecker;
+import com.goverse.provider.permission.SignatureCache;
+import com.goverse.provider.util.ProviderExecutors;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class AuthScope {
 
+    private static final String TAG = AuthScope.class.getSimpleName();
+
     public static class Configuration {
         public String packageName;
         public List<String> sha1;
         public List<String> scopes;
 
+        /**
+         * operations granted on scopes, combination of PermissionChecker FLAG_CONTENT_*.
+         */
+        public byte operations;
+
+        /**
+         * rate limit of the caller, null for {@link RateLimit#DEFAULT_CALLER} in caller list,
+         * and no limit in caller white list.
+         */
+        public RateLimit rateLimit;
+
+        private volatile byte[][] sha1Digests;
+
         public Configuration(String packageName, String[] sha1, String[] scopes) {
+            this(packageName, sha1, scopes, PermissionChecker.FLAG_CONTENT_ALL);
+        }
+
+        public Configuration(String packageName, String[] sha1, String[] scopes, byte operations) {
             this.packageName = packageName;
             this.sha1 = Arrays.asList(sha1);
             if (scopes != null) {
                 this.scopes = new ArrayList<>(Arrays.asList(scopes));
             }
+            this.operations = operations;
+        }
+
+        /**
+         * raw bytes of {@link #sha1}, parsed once for comparing with caller's digest.
+         * @return sha1 digests
+         */
+        public byte[][] getSha1Digests() {
+            byte[][] digests = sha1Digests;
+            if (digests == null) {
+                digests = new byte[sha1.size()][];
+                for (int i = 0; i < digests.length; i ++) {
+                    digests[i] = SignatureCache.parseFingerprint(sha1.get(i));
+                }
+                sha1Digests = digests;
+            }
+            return digests;
+        }
+    }
+
+    /**
+     * Token bucket limit of requests from a caller package, refilled at permitsPerSecond up to burst.
+     */
+    public static class RateLimit {
+
+        /**
+         * limit of callers in caller list without configured rateLimit.
+         */
+        public static final RateLimit DEFAULT_CALLER = new RateLimit(20, 40);
+
+        public final double permitsPerSecond;
+
+        public final int burst;
+
+        public RateLimit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = Math.max(1, burst);
         }
     }
 
-    private static Map<String, Configuration> callerListConfigMap = new HashMap<>();
-    private static Map<String, Configuration> callerWhiteListConfigMap = new HashMap<>();
+    /**
+     * Immutable snapshot of caller configuration together with its compiled index,
+     * replaced as a whole on reload so that readers never see a partial update.
+     */
+    public static class Snapshot {
+        public final Map<String, Configuration> callerListConfigMap;
+        public final Map<String, Configuration> callerWhiteListConfigMap;
+        public final AuthIndex authIndex;
+
+        Snapshot(Map<String, Configuration> callerWhiteListConfigMap, Map<String, Configuration> callerListConfigMap) {
+            this.callerWhiteListConfigMap = Collections.unmodifiableMap(new HashMap<>(callerWhiteListConfigMap));
+            this.callerListConfigMap = Collections.unmodifiableMap(new HashMap<>(callerListConfigMap));
+            this.authIndex = AuthIndex.compile(this.callerWhiteListConfigMap, this.callerListConfigMap);
+        }
+    }
+
+    private static volatile Snapshot sSnapshot;
 
     static {
+        // built-in entries, used until CallerList is loaded.
+        Map<String, Configuration> callerListConfigMap = new HashMap<>();
+        Map<String, Configuration> callerWhiteListConfigMap = new HashMap<>();
 
         callerListConfigMap.put("com.eg.android.AlipayGphone", new Configuration("com.eg.android.AlipayGphone", new String[] {"84:0F:34:3A:0E:FC:32:5B:A0:BF:75:DA:C8:35:E4:D5:87:03:34:35"}, new String[]{OpenDataAdapter.READ_SCOPE})); // 支付宝
 
+        publish(callerWhiteListConfigMap, callerListConfigMap);
+    }
+
+    public static Snapshot getSnapshot() {
+        return sSnapshot;
+    }
+
+    /**
+     * get the decision index compiled from caller list and caller white list.
+     * @return authIndex
+     */
+    public static AuthIndex getIndex() {
+        return sSnapshot.authIndex;
+    }
+
+    /**
+     * publish new caller configuration, in-flight checks keep using the previous snapshot.
+     * @param callerWhiteListConfigMap caller white list
+     * @param callerListConfigMap caller list
+     */
+    public static void publish(Map<String, Configuration> callerWhiteListConfigMap, Map<String, Configuration> callerListConfigMap) {
+        sSnapshot = new Snapshot(callerWhiteListConfigMap, callerListConfigMap);
+    }
+
+    /**
+     * reload {@link CallerListLoader#ASSET_NAME} and its override file in background.
+     * @param context context
+     * @return future of reloading, true if loaded
+     */
+    public static Future<Boolean> reload(final Context context) {
+        return ProviderExecutors.background().submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return load(context);
+            }
+        });
+    }
+
+    /**
+     * load {@link CallerListLoader#ASSET_NAME} and its override file on calling thread.
+     * @param context context
+     * @return true if loaded
+     */
+    public static boolean load(Context context) {
+        long start = SystemClock.elapsedRealtime();
+        CallerListLoader loader = new CallerListLoader();
+        if (!loader.load(context)) return false;
+        publish(loader.getCallerWhiteListConfigMap(), loader.getCallerListConfigMap());
+        Log.d(TAG, "load---cost: " + (SystemClock.elapsedRealtime() - start));
+        return true;
     }
 
     public static Map<String, Configuration> getCallerListConfigMap() {
-        return callerListConfigMap;
+        return sSnapshot.callerListConfigMap;
     }
 
     public static Map<String, Configuration> getCallerWhiteListConfigMap() {
-        return callerWhiteListConfigMap;
+        return sSnapshot.callerWhiteListConfigMap;
     }
 
 }
@@ -0,0 +1,220 @@
+package com.goverse.provider.auth;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.WorkerThread;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.goverse.provider.permission.PermissionChecker;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loader of caller configuration, which parses {@link #ASSET_NAME} in assets
+ * and then the optional override file {@link #OVERRIDE_FILE_NAME} in files dir
+ * with a streaming json reader. Entries in override file replace entries
+ * of the same packageName.
+ * format:
+ * {
+ *     "whiteCallerList" : [{"packageName" : "", "sha1" : [""], "scopes" : [""], "operations" : ["query"]}],
+ *     "callerList" : [...]
+ * }
+ * "operations" is optional, one of query, insert, update, delete, default is all.
+ * "rateLimit" is optional, {"permitsPerSecond" : 20, "burst" : 40}, see {@link AuthScope.RateLimit}.
+ */
+public class CallerListLoader {
+
+    private static final String TAG = CallerListLoader.class.getSimpleName();
+
+    public static final String ASSET_NAME = "CallerList";
+
+    public static final String OVERRIDE_FILE_NAME = "CallerList";
+
+    private static final String KEY_WHITE_CALLER_LIST = "whiteCallerList";
+
+    private static final String KEY_CALLER_LIST = "callerList";
+
+    private final Map<String, AuthScope.Configuration> mCallerListConfigMap = new HashMap<>();
+
+    private final Map<String, AuthScope.Configuration> mCallerWhiteListConfigMap = new HashMap<>();
+
+    /**
+     * load asset and override file.
+     * @param context context
+     * @return whether any source is loaded
+     */
+    @WorkerThread
+    public boolean load(Context context) {
+        boolean loaded = false;
+        InputStream asset = null;
+        try {
+            asset = context.getAssets().open(ASSET_NAME);
+            parse(asset);
+            loaded = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(asset);
+        }
+
+        File overrideFile = new File(context.getFilesDir(), OVERRIDE_FILE_NAME);
+        if (overrideFile.exists()) {
+            InputStream override = null;
+            try {
+                override = new FileInputStream(overrideFile);
+                parse(override);
+                loaded = true;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                closeQuietly(override);
+            }
+        }
+        Log.d(TAG, "load---callerList: " + mCallerListConfigMap.size() + ",whiteCallerList: " + mCallerWhiteListConfigMap.size());
+        return loaded;
+    }
+
+    public Map<String, AuthScope.Configuration> getCallerListConfigMap() {
+        return mCallerListConfigMap;
+    }
+
+    public Map<String, AuthScope.Configuration> getCallerWhiteListConfigMap() {
+        return mCallerWhiteListConfigMap;
+    }
+
+    /**
+     * parse configuration json, entries are merged into loaded ones.
+     * @param inputStream json stream
+     * @throws IOException malformed json
+     */
+    public void parse(InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, "UTF-8")));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (KEY_WHITE_CALLER_LIST.equals(name)) {
+                readConfigurations(reader, mCallerWhiteListConfigMap);
+            } else if (KEY_CALLER_LIST.equals(name)) {
+                readConfigurations(reader, mCallerListConfigMap);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readConfigurations(JsonReader reader, Map<String, AuthScope.Configuration> configMap) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            AuthScope.Configuration configuration = readConfiguration(reader);
+            if (configuration != null) {
+                configMap.put(configuration.packageName, configuration);
+            }
+        }
+        reader.endArray();
+    }
+
+    private AuthScope.Configuration readConfiguration(JsonReader reader) throws IOException {
+        String packageName = null;
+        List<String> sha1 = null;
+        List<String> scopes = null;
+        byte operations = PermissionChecker.FLAG_CONTENT_ALL;
+        AuthScope.RateLimit rateLimit = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("packageName".equals(name)) {
+                packageName = reader.nextString();
+            } else if ("sha1".equals(name)) {
+                sha1 = readStrings(reader);
+            } else if ("scopes".equals(name)) {
+                scopes = readStrings(reader);
+            } else if ("operations".equals(name)) {
+                operations = readOperations(reader);
+            } else if ("rateLimit".equals(name)) {
+                rateLimit = readRateLimit(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (packageName == null || sha1 == null) {
+            Log.w(TAG, "readConfiguration---invalid entry: " + packageName);
+            return null;
+        }
+        AuthScope.Configuration configuration = new AuthScope.Configuration(packageName, sha1.toArray(new String[0]),
+                scopes != null ? scopes.toArray(new String[0]) : null, operations);
+        configuration.rateLimit = rateLimit;
+        return configuration;
+    }
+
+    private AuthScope.RateLimit readRateLimit(JsonReader reader) throws IOException {
+        double permitsPerSecond = -1;
+        int burst = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("permitsPerSecond".equals(name)) {
+                permitsPerSecond = reader.nextDouble();
+            } else if ("burst".equals(name)) {
+                burst = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (permitsPerSecond <= 0) {
+            Log.w(TAG, "readRateLimit---invalid permitsPerSecond: " + permitsPerSecond);
+            return null;
+        }
+        // burst defaults to two seconds of permits.
+        return new AuthScope.RateLimit(permitsPerSecond, burst > 0 ? burst : (int) Math.ceil(permitsPerSecond * 2));
+    }
+
+    private List<String> readStrings(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return values;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    private byte readOperations(JsonReader reader) throws IOException {
+        byte operations = 0;
+        for (String operation : readStrings(reader)) {
+            if ("query".equals(operation)) {
+                operations |= PermissionChecker.FLAG_CONTENT_QUERY;
+            } else if ("insert".equals(operation)) {
+                operations |= PermissionChecker.FLAG_CONTENT_INSERT;
+            } else if ("update".equals(operation)) {
+                operations |= PermissionChecker.FLAG_CONTENT_UPDATE;
+            } else if ("delete".equals(operation)) {
+                operations |= PermissionChecker.FLAG_CONTENT_DELETE;
+            }
+        }
+        return operations;
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream == null) return;
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
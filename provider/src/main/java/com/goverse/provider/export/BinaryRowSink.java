@@ -0,0 +1,142 @@
+package com.goverse.provider.export;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary rows: magic "GVR1", varint column count and UTF-8 column names,
+ * then each row as byte 1 followed by its cells, and byte 0 at the end.
+ * A cell is a type byte, 0 null, 1 zigzag varint long, 2 double of 8 bytes,
+ * 3 varint length and UTF-8 bytes of string.
+ */
+public class BinaryRowSink implements RowSink {
+
+    private static final int MAGIC = 0x47565231;
+
+    private static final int TYPE_NULL = 0;
+
+    private static final int TYPE_LONG = 1;
+
+    private static final int TYPE_DOUBLE = 2;
+
+    private static final int TYPE_STRING = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream mOut;
+
+    private int mColumnCount;
+
+    private int mNextColumn;
+
+    private int mRowCount;
+
+    public BinaryRowSink(OutputStream out) {
+        mOut = new DataOutputStream(new BufferedOutputStream(out, 16 * 1024));
+    }
+
+    @Override
+    public void begin(String[] columns) throws IOException {
+        mColumnCount = columns.length;
+        mOut.writeInt(MAGIC);
+        writeVarLong(columns.length);
+        for (String column : columns) {
+            writeBytes(column.getBytes(UTF_8));
+        }
+    }
+
+    private void beginCell(int column, int type) throws IOException {
+        // cells not written are null, so that a row is always complete.
+        if (mNextColumn == 0) mOut.writeByte(1);
+        while (mNextColumn < column) {
+            mOut.writeByte(TYPE_NULL);
+            mNextColumn ++;
+        }
+        if (column != mNextColumn) {
+            throw new IllegalStateException("cells must be written in column order, column: " + column);
+        }
+        mOut.writeByte(type);
+        mNextColumn ++;
+    }
+
+    @Override
+    public void putLong(int column, long value) {
+        try {
+            beginCell(column, TYPE_LONG);
+            writeVarLong((value << 1) ^ (value >> 63));
+        } catch (IOException e) {
+            throw new ExportIOException(e);
+        }
+    }
+
+    @Override
+    public void putDouble(int column, double value) {
+        try {
+            beginCell(column, TYPE_DOUBLE);
+            mOut.writeDouble(value);
+        } catch (IOException e) {
+            throw new ExportIOException(e);
+        }
+    }
+
+    @Override
+    public void putString(int column, String value) {
+        try {
+            if (value == null) {
+                beginCell(column, TYPE_NULL);
+                return;
+            }
+            beginCell(column, TYPE_STRING);
+            writeBytes(value.getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new ExportIOException(e);
+        }
+    }
+
+    @Override
+    public void putNull(int column) {
+        try {
+            beginCell(column, TYPE_NULL);
+        } catch (IOException e) {
+            throw new ExportIOException(e);
+        }
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        if (mNextColumn == 0) mOut.writeByte(1);
+        while (mNextColumn < mColumnCount) {
+            mOut.writeByte(TYPE_NULL);
+            mNextColumn ++;
+        }
+        mNextColumn = 0;
+        mRowCount ++;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        mOut.writeByte(0);
+        mOut.flush();
+    }
+
+    @Override
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarLong(bytes.length);
+        mOut.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            mOut.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        mOut.writeByte((int) value);
+    }
+}
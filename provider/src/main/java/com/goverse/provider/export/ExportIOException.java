@@ -0,0 +1,19 @@
+package com.goverse.provider.export;
+
+import java.io.IOException;
+
+/**
+ * IOException thrown through {@link com.goverse.provider.adapter.RowWriter} methods,
+ * which can not throw checked exceptions, e.g. when the reader closed the pipe.
+ */
+public class ExportIOException extends RuntimeException {
+
+    public ExportIOException(IOException cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+        return (IOException) super.getCause();
+    }
+}
@@ -0,0 +1,106 @@
+package com.goverse.provider.export;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Rows as newline delimited json objects, cells of a row are buffered until {@link #endRow()}.
+ */
+public class NdjsonRowSink implements RowSink {
+
+    private static final int TYPE_NULL = 0;
+
+    private static final int TYPE_LONG = 1;
+
+    private static final int TYPE_DOUBLE = 2;
+
+    private static final int TYPE_STRING = 3;
+
+    private final Writer mWriter;
+
+    private final JsonWriter mJsonWriter;
+
+    private String[] mColumns;
+
+    private int[] mTypes;
+
+    private long[] mLongs;
+
+    private double[] mDoubles;
+
+    private String[] mStrings;
+
+    private int mRowCount;
+
+    public NdjsonRowSink(OutputStream out) {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+        mJsonWriter = new JsonWriter(mWriter);
+        // one top-level object per line.
+        mJsonWriter.setLenient(true);
+    }
+
+    @Override
+    public void begin(String[] columns) {
+        mColumns = columns;
+        mTypes = new int[columns.length];
+        mLongs = new long[columns.length];
+        mDoubles = new double[columns.length];
+        mStrings = new String[columns.length];
+    }
+
+    @Override
+    public void putLong(int column, long value) {
+        mTypes[column] = TYPE_LONG;
+        mLongs[column] = value;
+    }
+
+    @Override
+    public void putDouble(int column, double value) {
+        mTypes[column] = TYPE_DOUBLE;
+        mDoubles[column] = value;
+    }
+
+    @Override
+    public void putString(int column, String value) {
+        mTypes[column] = value != null ? TYPE_STRING : TYPE_NULL;
+        mStrings[column] = value;
+    }
+
+    @Override
+    public void putNull(int column) {
+        mTypes[column] = TYPE_NULL;
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        mJsonWriter.beginObject();
+        for (int i = 0; i < mColumns.length; i ++) {
+            mJsonWriter.name(mColumns[i]);
+            switch (mTypes[i]) {
+                case TYPE_LONG: mJsonWriter.value(mLongs[i]); break;
+                case TYPE_DOUBLE: mJsonWriter.value(mDoubles[i]); break;
+                case TYPE_STRING: mJsonWriter.value(mStrings[i]); mStrings[i] = null; break;
+                default: mJsonWriter.nullValue(); break;
+            }
+            mTypes[i] = TYPE_NULL;
+        }
+        mJsonWriter.endObject();
+        mWriter.write('\n');
+        mRowCount ++;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        mJsonWriter.flush();
+    }
+
+    @Override
+    public int getRowCount() {
+        return mRowCount;
+    }
+}
@@ -0,0 +1,81 @@
+package com.goverse.provider.export;
+
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Output to the write side of a pipe, failing instead of blocking forever when the reader stalls.
+ * Bytes are written in chunks of at most {@link #CHUNK}, each after poll reports the pipe writable,
+ * so that a write never blocks longer than the stall timeout.
+ * The descriptor is not closed by {@link #close()}, it is owned by its ParcelFileDescriptor.
+ */
+public class PipeOutputStream extends OutputStream {
+
+    /**
+     * PIPE_BUF, a pipe reported writable takes a write of this size without blocking.
+     */
+    private static final int CHUNK = 4096;
+
+    private final FileDescriptor mFileDescriptor;
+
+    private final long mStallTimeoutMillis;
+
+    private final byte[] mSingle = new byte[1];
+
+    /**
+     * @param fileDescriptor write side of pipe
+     * @param stallTimeoutMillis max millis to wait for the reader to make room
+     */
+    public PipeOutputStream(FileDescriptor fileDescriptor, long stallTimeoutMillis) {
+        mFileDescriptor = fileDescriptor;
+        mStallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mSingle[0] = (byte) b;
+        write(mSingle, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            awaitWritable();
+            int written;
+            try {
+                written = Os.write(mFileDescriptor, b, off, Math.min(len, CHUNK));
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.EINTR || e.errno == OsConstants.EAGAIN) continue;
+                throw e.rethrowAsIOException();
+            }
+            off += written;
+            len -= written;
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        StructPollfd pollfd = new StructPollfd();
+        pollfd.fd = mFileDescriptor;
+        pollfd.events = (short) OsConstants.POLLOUT;
+        long deadline = SystemClock.elapsedRealtime() + mStallTimeoutMillis;
+        while (true) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                throw new InterruptedIOException("reader stalled for " + mStallTimeoutMillis + "ms");
+            }
+            try {
+                // readiness or error, an error is reported by the following write.
+                if (Os.poll(new StructPollfd[]{pollfd}, (int) Math.min(remaining, Integer.MAX_VALUE)) > 0) return;
+            } catch (ErrnoException e) {
+                if (e.errno != OsConstants.EINTR) throw e.rethrowAsIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.goverse.provider.export;
+
+import com.goverse.provider.adapter.RowWriter;
+import java.io.IOException;
+
+/**
+ * Streaming destination of exported rows: {@link #begin(String[])} once,
+ * then cells of each row by {@link RowWriter} followed by {@link #endRow()}, then {@link #finish()}.
+ * Rows are encoded as they come, so that memory stays constant and writing
+ * blocks while the reader is behind.
+ */
+public interface RowSink extends RowWriter {
+
+    /**
+     * write header.
+     * @param columns column names
+     * @throws IOException IOException
+     */
+    void begin(String[] columns) throws IOException;
+
+    /**
+     * end the row of cells written since last row.
+     * @throws IOException IOException
+     */
+    void endRow() throws IOException;
+
+    /**
+     * write trailer and flush.
+     * @throws IOException IOException
+     */
+    void finish() throws IOException;
+
+    int getRowCount();
+}
@@ -0,0 +1,90 @@
+package com.goverse.provider.export;
+
+import android.database.Cursor;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Export formats and helpers of {@link RowSink}.
+ */
+public final class RowSinks {
+
+    /**
+     * one json object per line, keyed by column name.
+     */
+    public static final String MIME_NDJSON = "application/x-ndjson";
+
+    /**
+     * compact binary, see {@link BinaryRowSink}.
+     */
+    public static final String MIME_BINARY = "application/vnd.goverse.rows";
+
+    private RowSinks() {}
+
+    /**
+     * resolve requested format to its MIME type.
+     * @param mimeType MIME_*, short name "ndjson" or "binary", wildcard or null for ndjson
+     * @return MIME_*, null if format is unknown
+     */
+    public static String resolve(String mimeType) {
+        if (mimeType == null || MIME_NDJSON.equals(mimeType) || "ndjson".equals(mimeType) || "*/*".equals(mimeType)) {
+            return MIME_NDJSON;
+        }
+        if (MIME_BINARY.equals(mimeType) || "binary".equals(mimeType)) {
+            return MIME_BINARY;
+        }
+        return null;
+    }
+
+    public static boolean isSupported(String mimeType) {
+        return resolve(mimeType) != null;
+    }
+
+    /**
+     * create sink of format.
+     * @param mimeType format accepted by {@link #resolve(String)}
+     * @param out output
+     * @return sink, null if format is unknown
+     */
+    public static RowSink create(String mimeType, OutputStream out) {
+        String resolved = resolve(mimeType);
+        if (MIME_NDJSON.equals(resolved)) {
+            return new NdjsonRowSink(out);
+        }
+        if (MIME_BINARY.equals(resolved)) {
+            return new BinaryRowSink(out);
+        }
+        return null;
+    }
+
+    /**
+     * write all rows of cursor by cell type, the cursor is not closed.
+     * @param cursor cursor
+     * @param sink sink
+     * @throws IOException IOException
+     */
+    public static void writeCursor(Cursor cursor, RowSink sink) throws IOException {
+        int columnCount = cursor.getColumnCount();
+        sink.begin(cursor.getColumnNames());
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columnCount; i ++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        sink.putLong(i, cursor.getLong(i));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        sink.putDouble(i, cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_NULL:
+                        sink.putNull(i);
+                        break;
+                    default:
+                        sink.putString(i, cursor.getString(i));
+                        break;
+                }
+            }
+            sink.endRow();
+        }
+        sink.finish();
+    }
+}
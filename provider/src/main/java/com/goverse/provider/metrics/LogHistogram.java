@@ -0,0 +1,135 @@
+package com.goverse.provider.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets:
+ * every power of two is split into 4 sub buckets, so that a percentile
+ * is reported within 25% of its real value, from nanos to hours in 256 buckets.
+ * Recording is a few atomic increments, safe on any number of binder threads.
+ */
+public class LogHistogram {
+
+    private static final int SUB_BITS = 2;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private static final int BUCKET_COUNT = 64 * SUB_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    private final AtomicLong mSum = new AtomicLong();
+
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * record a value, negative value is recorded as 0.
+     * @param value value
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mBuckets.incrementAndGet(indexOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;
+        long sub = SUB_COUNT + index % SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * take a snapshot, fields are read one by one and may be slightly inconsistent
+     * while recording is in progress.
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i ++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        long max = mMax.get();
+        return new Snapshot(count, mSum.get(), max,
+                percentile(buckets, count, max, 0.5),
+                percentile(buckets, count, max, 0.99),
+                percentile(buckets, count, max, 0.999));
+    }
+
+    private static long percentile(long[] buckets, long count, long max, double quantile) {
+        if (count == 0) return 0;
+        long target = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i ++) {
+            seen += buckets[i];
+            if (seen >= target) return Math.min(upperBoundOf(i), max);
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i ++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Immutable summary of histogram.
+     */
+    public static class Snapshot {
+
+        public final long count;
+
+        public final long sum;
+
+        public final long max;
+
+        public final long p50;
+
+        public final long p99;
+
+        public final long p999;
+
+        Snapshot(long count, long sum, long max, long p50, long p99, long p999) {
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        public long mean() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + mean() + " p50=" + p50 + " p99=" + p99 + " p999=" + p999 + " max=" + max;
+        }
+    }
+}
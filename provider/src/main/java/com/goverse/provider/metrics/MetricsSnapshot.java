@@ -0,0 +1,54 @@
+package com.goverse.provider.metrics;
+
+/**
+ * Immutable metrics of one match code, operation and caller,
+ * durations are in nanos.
+ */
+public class MetricsSnapshot {
+
+    public final int code;
+
+    public final int operation;
+
+    public final String caller;
+
+    private final long[] mOutcomes;
+
+    public final LogHistogram.Snapshot total;
+
+    public final LogHistogram.Snapshot permission;
+
+    public final LogHistogram.Snapshot adapter;
+
+    public final LogHistogram.Snapshot resultSize;
+
+    MetricsSnapshot(int code, int operation, String caller, long[] outcomes,
+                    LogHistogram.Snapshot total, LogHistogram.Snapshot permission,
+                    LogHistogram.Snapshot adapter, LogHistogram.Snapshot resultSize) {
+        this.code = code;
+        this.operation = operation;
+        this.caller = caller;
+        this.mOutcomes = outcomes;
+        this.total = total;
+        this.permission = permission;
+        this.adapter = adapter;
+        this.resultSize = resultSize;
+    }
+
+    /**
+     * get count of outcome.
+     * @param outcome {@link ProviderMetrics#OUTCOME_OK} etc.
+     * @return count
+     */
+    public long getOutcomeCount(int outcome) {
+        return mOutcomes[outcome];
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (long outcome : mOutcomes) {
+            count += outcome;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,73 @@
+package com.goverse.provider.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stats of one match code, operation and caller.
+ */
+public class OperationStats {
+
+    final int code;
+
+    final int operation;
+
+    final String caller;
+
+    /**
+     * whole operation in nanos, including permission check and adapter.
+     */
+    final LogHistogram total = new LogHistogram();
+
+    /**
+     * permission check in nanos.
+     */
+    final LogHistogram permission = new LogHistogram();
+
+    /**
+     * adapter in nanos, only recorded when permission is granted.
+     */
+    final LogHistogram adapter = new LogHistogram();
+
+    /**
+     * rows returned by query or affected by write.
+     */
+    final LogHistogram resultSize = new LogHistogram();
+
+    final AtomicLongArray outcomes = new AtomicLongArray(ProviderMetrics.OUTCOME_NAMES.length);
+
+    OperationStats(int code, int operation, String caller) {
+        this.code = code;
+        this.operation = operation;
+        this.caller = caller;
+    }
+
+    void record(int outcome, long permissionNanos, long adapterNanos, long totalNanos, long resultSize) {
+        outcomes.incrementAndGet(outcome);
+        total.record(totalNanos);
+        permission.record(permissionNanos);
+        if (outcome == ProviderMetrics.OUTCOME_OK || outcome == ProviderMetrics.OUTCOME_EMPTY
+                || outcome == ProviderMetrics.OUTCOME_ERROR) {
+            adapter.record(adapterNanos);
+            this.resultSize.record(resultSize);
+        }
+    }
+
+    MetricsSnapshot snapshot() {
+        long[] outcomeCounts = new long[outcomes.length()];
+        for (int i = 0; i < outcomeCounts.length; i ++) {
+            outcomeCounts[i] = outcomes.get(i);
+        }
+        return new MetricsSnapshot(code, operation, caller, outcomeCounts,
+                total.snapshot(), permission.snapshot(), adapter.snapshot(), resultSize.snapshot());
+    }
+
+    void reset() {
+        for (int i = 0; i < outcomes.length(); i ++) {
+            outcomes.set(i, 0);
+        }
+        total.reset();
+        permission.reset();
+        adapter.reset();
+        resultSize.reset();
+    }
+}
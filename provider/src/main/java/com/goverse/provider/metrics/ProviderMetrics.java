@@ -0,0 +1,205 @@
+package com.goverse.provider.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput metrics of provider, recorded per match code × operation × caller package.
+ * Recording is lock-free, stats of a key are created once and then only updated atomically.
+ */
+public class ProviderMetrics {
+
+    public static final int OP_QUERY = 0;
+
+    public static final int OP_INSERT = 1;
+
+    public static final int OP_UPDATE = 2;
+
+    public static final int OP_DELETE = 3;
+
+    public static final int OP_BULK_INSERT = 4;
+
+    public static final int OP_EXPORT = 5;
+
+    /**
+     * read through {@link android.content.ContentProvider#call(String, String, android.os.Bundle)}, one per uri of a batch.
+     */
+    public static final int OP_CALL_READ = 6;
+
+    static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete", "bulkInsert", "export", "callRead"};
+
+    /**
+     * adapter returned data or changed rows.
+     */
+    public static final int OUTCOME_OK = 0;
+
+    /**
+     * adapter returned nothing, such as null cursor or 0 rows changed.
+     */
+    public static final int OUTCOME_EMPTY = 1;
+
+    /**
+     * permission denied.
+     */
+    public static final int OUTCOME_DENIED = 2;
+
+    /**
+     * no adapter matched the uri.
+     */
+    public static final int OUTCOME_NO_ROUTE = 3;
+
+    /**
+     * adapter threw.
+     */
+    public static final int OUTCOME_ERROR = 4;
+
+    /**
+     * rejected by admission, caller over rate limit or provider busy.
+     */
+    public static final int OUTCOME_THROTTLED = 5;
+
+    static final String[] OUTCOME_NAMES = {"ok", "empty", "denied", "noRoute", "error", "throttled"};
+
+    /**
+     * callers beyond this count are merged into {@link #OTHER_CALLER}, so that
+     * unknown callers can not grow metrics without bound.
+     */
+    private static final int MAX_CALLERS = 64;
+
+    static final String OTHER_CALLER = "<other>";
+
+    private static final String UNKNOWN_CALLER = "<unknown>";
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, OperationStats>> mStats = new ConcurrentHashMap<>();
+
+    private final AtomicLong mStartNanos = new AtomicLong(System.nanoTime());
+
+    private volatile boolean mEnabled = true;
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * record one operation.
+     * @param code match code, -1 if no adapter matched
+     * @param operation OP_*
+     * @param caller calling package
+     * @param outcome OUTCOME_*
+     * @param permissionNanos time of permission check
+     * @param adapterNanos time of adapter
+     * @param totalNanos time of whole operation
+     * @param resultSize rows returned or changed
+     */
+    public void record(int code, int operation, String caller, int outcome,
+                       long permissionNanos, long adapterNanos, long totalNanos, long resultSize) {
+        if (!mEnabled) return;
+        getStats(code, operation, caller).record(outcome, permissionNanos, adapterNanos, totalNanos, resultSize);
+    }
+
+    private OperationStats getStats(int code, int operation, String caller) {
+        if (caller == null) caller = UNKNOWN_CALLER;
+        ConcurrentHashMap<Integer, OperationStats> callerStats = mStats.get(caller);
+        if (callerStats == null) {
+            if (mStats.size() >= MAX_CALLERS) {
+                caller = OTHER_CALLER;
+                callerStats = mStats.get(caller);
+            }
+            if (callerStats == null) {
+                callerStats = new ConcurrentHashMap<>();
+                ConcurrentHashMap<Integer, OperationStats> previous = mStats.putIfAbsent(caller, callerStats);
+                if (previous != null) callerStats = previous;
+            }
+        }
+        Integer key = code * OPERATION_NAMES.length + operation;
+        OperationStats stats = callerStats.get(key);
+        if (stats == null) {
+            stats = new OperationStats(code, operation, caller);
+            OperationStats previous = callerStats.putIfAbsent(key, stats);
+            if (previous != null) stats = previous;
+        }
+        return stats;
+    }
+
+    /**
+     * take snapshots of all recorded keys.
+     * @return snapshots
+     */
+    public List<MetricsSnapshot> snapshot() {
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        for (ConcurrentHashMap<Integer, OperationStats> callerStats : mStats.values()) {
+            for (OperationStats stats : callerStats.values()) {
+                snapshots.add(stats.snapshot());
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * clear all recorded values, and restart the period of throughput.
+     */
+    public void reset() {
+        for (ConcurrentHashMap<Integer, OperationStats> callerStats : mStats.values()) {
+            for (OperationStats stats : callerStats.values()) {
+                stats.reset();
+            }
+        }
+        mStartNanos.set(System.nanoTime());
+    }
+
+    /**
+     * millis since created or last {@link #reset()}.
+     * @return period
+     */
+    public long getPeriodMillis() {
+        return (System.nanoTime() - mStartNanos.get()) / 1000000;
+    }
+
+    public static String operationName(int operation) {
+        return OPERATION_NAMES[operation];
+    }
+
+    public static String outcomeName(int outcome) {
+        return OUTCOME_NAMES[outcome];
+    }
+
+    /**
+     * print metrics, durations in micros.
+     * @param writer writer
+     */
+    public void dump(PrintWriter writer) {
+        long periodMillis = Math.max(1, getPeriodMillis());
+        writer.println("ProviderMetrics: enabled=" + mEnabled + " period=" + periodMillis + "ms");
+        for (MetricsSnapshot snapshot : snapshot()) {
+            long count = snapshot.getCount();
+            if (count == 0) continue;
+            StringBuilder outcomes = new StringBuilder();
+            for (int i = 0; i < OUTCOME_NAMES.length; i ++) {
+                long outcomeCount = snapshot.getOutcomeCount(i);
+                if (outcomeCount == 0) continue;
+                if (outcomes.length() > 0) outcomes.append(',');
+                outcomes.append(OUTCOME_NAMES[i]).append('=').append(outcomeCount);
+            }
+            writer.println("  code=" + snapshot.code + " op=" + operationName(snapshot.operation)
+                    + " caller=" + snapshot.caller + " count=" + count
+                    + " qps=" + String.format(Locale.US, "%.2f", count * 1000d / periodMillis) + " [" + outcomes + "]");
+            writer.println("    total(us):      " + micros(snapshot.total));
+            writer.println("    permission(us): " + micros(snapshot.permission));
+            writer.println("    adapter(us):    " + micros(snapshot.adapter));
+            writer.println("    rows:           " + snapshot.resultSize);
+        }
+    }
+
+    private static String micros(LogHistogram.Snapshot snapshot) {
+        return "count=" + snapshot.count + " mean=" + snapshot.mean() / 1000 + " p50=" + snapshot.p50 / 1000
+                + " p99=" + snapshot.p99 / 1000 + " p999=" + snapshot.p999 / 1000 + " max=" + snapshot.max / 1000;
+    }
+}
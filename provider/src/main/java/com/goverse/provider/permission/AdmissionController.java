@@ -0,0 +1,212 @@
+package com.goverse.provider.permission;
+
+import android.content.Context;
+import android.util.Log;
+import com.goverse.provider.auth.AuthScope;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission of requests before permission check, so that a caller polling in a tight loop
+ * is rejected cheaply instead of occupying binder threads.
+ * Each caller package has a token bucket of {@link AuthScope.Configuration#rateLimit},
+ * callers in neither caller list nor caller white list are rejected before taking a slot,
+ * since permission check would deny them anyway.
+ * Requests in flight are bounded as well: callers in caller list are only admitted below
+ * {@link #MAX_NORMAL_IN_FLIGHT}, the rest is reserved for caller white list and this app.
+ * Admitted requests must be released by {@link #release()}.
+ */
+public class AdmissionController {
+
+    private final String TAG = AdmissionController.class.getSimpleName();
+
+    /**
+     * requests in flight admitted for caller white list, binder pool has 16 threads.
+     */
+    public static final int MAX_IN_FLIGHT = 12;
+
+    /**
+     * requests in flight admitted for callers in caller list.
+     */
+    public static final int MAX_NORMAL_IN_FLIGHT = 8;
+
+    /**
+     * buckets kept before idle ones are evicted, a bucket refilled to its burst is
+     * the same as a new one. Buckets in use are never evicted, they are bounded by caller lists.
+     */
+    private static final int MAX_BUCKETS = 128;
+
+    /**
+     * size of bucket map at which idle buckets are evicted, doubled after an eviction
+     * leaving many buckets in use, so that eviction is not scanning on every new caller.
+     */
+    private volatile int mEvictThreshold = MAX_BUCKETS;
+
+    private static final String OTHER_CALLERS = "<other>";
+
+    /**
+     * exports of a caller open at the same time, from opening until the writer finishes.
+     */
+    public static final int MAX_EXPORTS_PER_CALLER = 2;
+
+    /**
+     * exports open by caller package.
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> mExports = new ConcurrentHashMap<>();
+
+    private final String mAppPackageName;
+
+    private final AtomicInteger mInFlight = new AtomicInteger();
+
+    private final ConcurrentHashMap<String, TokenBucket> mBuckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong mRateLimitedCount = new AtomicLong();
+
+    private final AtomicLong mBusyCount = new AtomicLong();
+
+    private final AtomicLong mUnknownCount = new AtomicLong();
+
+    private volatile boolean mEnabled = true;
+
+    public AdmissionController(Context context) {
+        mAppPackageName = context.getApplicationInfo().packageName;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * admit a request of caller.
+     * @param callingPackage callingPackage
+     * @return admitted, {@link #release()} must be called after the request if true
+     */
+    public boolean admit(String callingPackage) {
+        if (!mEnabled || mAppPackageName.equals(callingPackage)) {
+            mInFlight.incrementAndGet();
+            return true;
+        }
+        AuthScope.Snapshot snapshot = AuthScope.getSnapshot();
+        AuthScope.Configuration white = callingPackage != null ? snapshot.callerWhiteListConfigMap.get(callingPackage) : null;
+        AuthScope.Configuration normal = white == null && callingPackage != null ? snapshot.callerListConfigMap.get(callingPackage) : null;
+        if (white == null && normal == null) {
+            mUnknownCount.incrementAndGet();
+            Log.d(TAG, "admit---not in caller list, callingPackage: " + callingPackage);
+            return false;
+        }
+        int maxInFlight = white != null ? MAX_IN_FLIGHT : MAX_NORMAL_IN_FLIGHT;
+        while (true) {
+            int inFlight = mInFlight.get();
+            if (inFlight >= maxInFlight) {
+                mBusyCount.incrementAndGet();
+                Log.d(TAG, "admit---busy, inFlight: " + inFlight + ", callingPackage: " + callingPackage);
+                return false;
+            }
+            if (mInFlight.compareAndSet(inFlight, inFlight + 1)) break;
+        }
+        AuthScope.RateLimit rateLimit;
+        if (white != null) {
+            rateLimit = white.rateLimit;
+        } else {
+            rateLimit = normal.rateLimit != null ? normal.rateLimit : AuthScope.RateLimit.DEFAULT_CALLER;
+        }
+        if (rateLimit != null && !getBucket(callingPackage, rateLimit).tryAcquire()) {
+            mInFlight.decrementAndGet();
+            mRateLimitedCount.incrementAndGet();
+            Log.d(TAG, "admit---rate limited, callingPackage: " + callingPackage);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * release an admitted request.
+     */
+    public void release() {
+        mInFlight.decrementAndGet();
+    }
+
+    /**
+     * admit an export of caller, counted until {@link #releaseExport(String)} after its writer finishes,
+     * so that a caller not reading its exports can not hold all export threads.
+     * @param callingPackage callingPackage
+     * @return admitted
+     */
+    public boolean admitExport(String callingPackage) {
+        String key = callingPackage != null ? callingPackage : OTHER_CALLERS;
+        AtomicInteger exports = mExports.get(key);
+        if (exports == null) {
+            AtomicInteger created = new AtomicInteger();
+            exports = mExports.putIfAbsent(key, created);
+            if (exports == null) exports = created;
+        }
+        while (true) {
+            int count = exports.get();
+            if (mEnabled && count >= MAX_EXPORTS_PER_CALLER) {
+                mBusyCount.incrementAndGet();
+                Log.d(TAG, "admitExport---busy, exports: " + count + ", callingPackage: " + callingPackage);
+                return false;
+            }
+            if (exports.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /**
+     * release an export admitted by {@link #admitExport(String)}.
+     * @param callingPackage callingPackage
+     */
+    public void releaseExport(String callingPackage) {
+        AtomicInteger exports = mExports.get(callingPackage != null ? callingPackage : OTHER_CALLERS);
+        if (exports != null) exports.decrementAndGet();
+    }
+
+    private TokenBucket getBucket(String key, AuthScope.RateLimit rateLimit) {
+        TokenBucket bucket = mBuckets.get(key);
+        // replaced if rate limit is reloaded.
+        if (bucket == null || bucket.rateLimit != rateLimit) {
+            if (mBuckets.size() >= mEvictThreshold) {
+                evictIdleBuckets();
+            }
+            TokenBucket created = new TokenBucket(rateLimit);
+            if (bucket == null) {
+                bucket = mBuckets.putIfAbsent(key, created);
+                if (bucket == null) bucket = created;
+            } else {
+                mBuckets.put(key, created);
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private synchronized void evictIdleBuckets() {
+        if (mBuckets.size() < mEvictThreshold) return;
+        Iterator<TokenBucket> iterator = mBuckets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isIdle()) iterator.remove();
+        }
+        mEvictThreshold = Math.max(MAX_BUCKETS, mBuckets.size() * 2);
+        Log.d(TAG, "evictIdleBuckets---buckets: " + mBuckets.size() + ", threshold: " + mEvictThreshold);
+    }
+
+    public int getInFlight() {
+        return mInFlight.get();
+    }
+
+    public long getRateLimitedCount() {
+        return mRateLimitedCount.get();
+    }
+
+    public long getBusyCount() {
+        return mBusyCount.get();
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Admission: enabled=" + mEnabled + " inFlight=" + mInFlight.get()
+                + " rateLimited=" + mRateLimitedCount.get() + " busy=" + mBusyCount.get()
+                + " unknown=" + mUnknownCount.get() + " buckets=" + mBuckets.size());
+    }
+}
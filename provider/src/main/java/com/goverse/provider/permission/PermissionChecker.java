@@ -1,19 +1,12 @@
 package com.goverse.provider.permission;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
+import android.os.Binder;
 import android.text.TextUtils;
 import android.util.Log;
-import androidx.core.util.Preconditions;
+import com.goverse.provider.auth.AuthIndex;
 import com.goverse.provider.auth.AuthScope;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
 
 public class PermissionChecker {
 
@@ -21,121 +14,120 @@ public class PermissionChecker {
 
     private final String TAG = PermissionChecker.class.getSimpleName();
 
+    private SignatureCache mSignatureCache;
+
+    private String mAppPackageName;
+
     public PermissionChecker(Context context) {
         mContext = context;
+        mAppPackageName = mContext.getApplicationInfo().packageName;
+        mSignatureCache = new SignatureCache(context);
+        mSignatureCache.setOnInvalidateListener(new SignatureCache.OnInvalidateListener() {
+            @Override
+            public void onInvalidate(String packageName) {
+                AuthIndex authIndex = AuthScope.getIndex();
+                if (authIndex == null) return;
+                if (packageName != null) {
+                    authIndex.forget(packageName);
+                } else {
+                    authIndex.forgetAll();
+                }
+            }
+        });
+    }
+
+    public SignatureCache getSignatureCache() {
+        return mSignatureCache;
     }
 
     /**
      * Flag indicating that caller is abled to query data in contentProvider.
      */
-    static final byte FLAG_CONTENT_QUERY = 0x01;
+    public static final byte FLAG_CONTENT_QUERY = 0x01;
 
     /**
      * Flag indicating that caller is abled to insert data in contentProvider.
      */
-    static final byte FLAG_CONTENT_INSERT = 0x02;
+    public static final byte FLAG_CONTENT_INSERT = 0x02;
 
     /**
      * Flag indicating that caller is abled to update data in contentProvider.
      */
-    static final byte FLAG_CONTENT_UPDATE = 0x04;
+    public static final byte FLAG_CONTENT_UPDATE = 0x04;
 
     /**
      * Flag indicating that caller is abled to delete data in contentProvider.
      */
-    static final byte FLAG_CONTENT_DELETE = 0x08;
+    public static final byte FLAG_CONTENT_DELETE = 0x08;
 
     /**
-     * get Caller's SHA1
-     * @param callerPackageName callerPackageName
-     * @return Caller's SHA1
+     * Flag indicating that caller is abled to write data in contentProvider.
      */
-    private String getCallerSHA1ByPackageName(String callerPackageName) {
-        Log.d(TAG, "getCallerSHA1ByPackageName: " + callerPackageName);
-        try {
-            PackageInfo info = mContext.getPackageManager().getPackageInfo(
-                    callerPackageName, PackageManager.GET_SIGNATURES);
-            byte[] cert = info.signatures[0].toByteArray();
-            MessageDigest md = MessageDigest.getInstance("SHA1");
-            byte[] publicKey = md.digest(cert);
-            StringBuffer hexString = new StringBuffer();
-            for (int i = 0; i < publicKey.length; i++) {
-                String appendString = Integer.toHexString(0xFF & publicKey[i])
-                        .toUpperCase(Locale.US);
-                if (appendString.length() == 1)
-                    hexString.append("0");
-                hexString.append(appendString);
-                hexString.append(":");
+    public static final byte FLAG_CONTENT_WRITE = FLAG_CONTENT_INSERT | FLAG_CONTENT_UPDATE | FLAG_CONTENT_DELETE;
+
+    /**
+     * Flag indicating that caller is abled to access data in contentProvider.
+     */
+    public static final byte FLAG_CONTENT_ALL = FLAG_CONTENT_QUERY | FLAG_CONTENT_WRITE;
+
+    /**
+     * check caller's signing-certificate digest against digests of grant.
+     * @param callerSha1 caller's digest
+     * @param grant grant
+     * @return isValid
+     */
+    private boolean checkCallerSha1Valid(byte[] callerSha1, AuthIndex.Grant grant) {
+        if (callerSha1 == null || grant == null || grant.digests == null) return false;
+        for (byte[] digest : grant.digests) {
+            if (digest != null && MessageDigest.isEqual(digest, callerSha1)) {
+                return true;
             }
-            String result = hexString.toString();
-            return result.substring(0, result.length()-1);
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         }
-        return null;
-    }
-
-    @SuppressLint("RestrictedApi")
-    private boolean checkCallerSha1Valid(String callerPackageName, List<String> sha1) {
-        Log.d(TAG, "checkCallerSha1Valid---callerPackageName: " + callerPackageName + ",sha1: " + sha1);
-        callerPackageName = Preconditions.checkNotNull(callerPackageName);
-        sha1 = Preconditions.checkNotNull(sha1);
-        String callerSha1 = getCallerSHA1ByPackageName(callerPackageName);
-        boolean res = sha1.contains(callerSha1);
-        Log.d(TAG, callerPackageName + " sha1 is valid: " + res);
-        return res;
+        return false;
     }
 
-    private boolean check(byte flag, String callerPackageName, String scope) {
+    /**
+     * check permission of operation on scope
+     * @param flag FLAG_CONTENT_*
+     * @param callerPackageName callerPackageName
+     * @param scope scope
+     * @return isValid
+     */
+    public boolean check(byte flag, String callerPackageName, String scope) {
         Log.d(TAG, "check---flag: " + flag + ",callerPackageName: " + callerPackageName);
-        String appPackageName = mContext.getApplicationInfo().packageName;
 
         // allow to access all scopes for self.
-        if (appPackageName.equalsIgnoreCase(callerPackageName)) return true;
+        if (mAppPackageName.equalsIgnoreCase(callerPackageName)) return true;
+        // permission denied if scope not settled
         if (TextUtils.isEmpty(callerPackageName) || TextUtils.isEmpty(scope)) return false;
 
         try {
-            // permission denied if scope not settled
-            if (TextUtils.isEmpty(scope)) {
-                Log.d(TAG, "scope is null ...");
+            AuthIndex authIndex = AuthScope.getIndex();
+            int scopeId = authIndex.getScopeId(scope);
+            if (scopeId == AuthIndex.NO_SCOPE) {
+                Log.d(TAG, scope + " is not granted to any caller ...");
                 return false;
             }
 
-            // check validation in caller white list for packageName, sha1 and can access to the scope.
-            Map<String, AuthScope.Configuration> callerWhiteListConfigMap = AuthScope.getCallerWhiteListConfigMap();
-
-            if (callerWhiteListConfigMap != null) {
-                AuthScope.Configuration configuration = callerWhiteListConfigMap.get(callerPackageName);
-                if (configuration != null) {
-                    Log.d(TAG, callerPackageName + " is in white list ...");
-                    List<String> sha1 = configuration.sha1;
-                    List<String> scopes = configuration.scopes;
-                    if (checkCallerSha1Valid(callerPackageName, sha1)) {
-                        if (scopes != null) {
-                            if (scopes.contains(scope)) {
-                                return true;
-                            }
-                        }
-                    }
-                }
+            int callingUid = Binder.getCallingUid();
+            if (authIndex.isDenied(callerPackageName, callingUid)) return false;
+
+            AuthIndex.Caller caller = authIndex.getCaller(callerPackageName);
+            if (caller == null) {
+                Log.d(TAG, callerPackageName + " is not in caller list ...");
+                authIndex.deny(callerPackageName, callingUid);
+                return false;
             }
-            Log.d(TAG, callerPackageName + " is not in white list ...");
-            // check validation in caller list, first to check caller's validation, then check if it has been granted permission and can access to this data.
-            Map<String, AuthScope.Configuration> callerListConfigMap = AuthScope.getCallerListConfigMap();
-
-            if (callerListConfigMap != null) {
-                AuthScope.Configuration configuration = callerListConfigMap.get(callerPackageName);
-                if (configuration == null) {
-                    Log.d(TAG, callerPackageName + " is not in caller list ...");
-                    return false;
-                }
-                List<String> sha1 = configuration.sha1;
-                List<String> scopes = configuration.scopes;
 
-                if (!checkCallerSha1Valid(callerPackageName, sha1)) return false;
-                if (scopes != null && scopes.contains(scope)) return true;
+            // check validation in caller white list first, then in caller list, for sha1 and the operation on scope.
+            byte[] callerSha1 = mSignatureCache.getDigest(callingUid, callerPackageName);
+            boolean whiteValid = checkCallerSha1Valid(callerSha1, caller.white);
+            if (whiteValid && caller.white.allows(scopeId, flag)) return true;
+            boolean normalValid = checkCallerSha1Valid(callerSha1, caller.normal);
+            if (normalValid && caller.normal.allows(scopeId, flag)) return true;
+            if (!whiteValid && !normalValid) {
+                Log.d(TAG, callerPackageName + " sha1 is invalid ...");
+                authIndex.deny(callerPackageName, callingUid);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,176 @@
+package com.goverse.provider.permission;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+import android.net.Uri;
+import android.util.Log;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of caller's signing-certificate SHA1 digest, keyed by package name and
+ * validated against the calling uid, so that {@link PermissionChecker} does not
+ * query {@link PackageManager} and rebuild the digest for every request.
+ * Entries are dropped when the package is replaced, changed or removed.
+ */
+public class SignatureCache {
+
+    private final String TAG = SignatureCache.class.getSimpleName();
+
+    private static class Entry {
+        final int uid;
+        final byte[] digest;
+
+        Entry(int uid, byte[] digest) {
+            this.uid = uid;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when cached digest is dropped.
+     */
+    public interface OnInvalidateListener {
+        /**
+         * @param packageName package name, null if all dropped
+         */
+        void onInvalidate(String packageName);
+    }
+
+    private Context mContext;
+
+    private volatile OnInvalidateListener mOnInvalidateListener;
+
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            Log.d(TAG, "onReceive---action: " + intent.getAction() + ",packageName: " + packageName);
+            if (packageName != null) {
+                invalidate(packageName);
+            } else {
+                invalidateAll();
+            }
+        }
+    };
+
+    public SignatureCache(Context context) {
+        mContext = context;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        try {
+            mContext.registerReceiver(mPackageReceiver, filter);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * get the SHA1 digest of caller's first signing certificate.
+     * The returned array is shared and must not be modified.
+     * @param uid calling uid
+     * @param packageName calling package name
+     * @return digest, null if package not found
+     */
+    public byte[] getDigest(int uid, String packageName) {
+        Entry entry = mEntries.get(packageName);
+        if (entry != null && entry.uid == uid) {
+            mHitCount.incrementAndGet();
+            return entry.digest;
+        }
+        mMissCount.incrementAndGet();
+        byte[] digest = loadDigest(packageName);
+        if (digest != null) {
+            mEntries.put(packageName, new Entry(uid, digest));
+        }
+        return digest;
+    }
+
+    private byte[] loadDigest(String packageName) {
+        Log.d(TAG, "loadDigest: " + packageName);
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(
+                    packageName, PackageManager.GET_SIGNATURES);
+            Signature[] signatures = info.signatures;
+            if (signatures == null || signatures.length == 0) return null;
+            return MessageDigest.getInstance("SHA1").digest(signatures[0].toByteArray());
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void setOnInvalidateListener(OnInvalidateListener onInvalidateListener) {
+        mOnInvalidateListener = onInvalidateListener;
+    }
+
+    public void invalidate(String packageName) {
+        mEntries.remove(packageName);
+        OnInvalidateListener listener = mOnInvalidateListener;
+        if (listener != null) listener.onInvalidate(packageName);
+    }
+
+    public void invalidateAll() {
+        mEntries.clear();
+        OnInvalidateListener listener = mOnInvalidateListener;
+        if (listener != null) listener.onInvalidate(null);
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * parse SHA1 fingerprint in form of "84:0F:34:..." into raw bytes.
+     * @param fingerprint colon separated hex string
+     * @return digest bytes, null if malformed
+     */
+    public static byte[] parseFingerprint(String fingerprint) {
+        if (fingerprint == null) return null;
+        int length = 0;
+        for (int i = 0; i < fingerprint.length(); i ++) {
+            if (fingerprint.charAt(i) != ':') length ++;
+        }
+        if (length == 0 || length % 2 != 0) return null;
+        byte[] digest = new byte[length / 2];
+        int index = 0;
+        int high = -1;
+        for (int i = 0; i < fingerprint.length(); i ++) {
+            char c = fingerprint.charAt(i);
+            if (c == ':') continue;
+            int value = Character.digit(c, 16);
+            if (value < 0) return null;
+            if (high < 0) {
+                high = value;
+            } else {
+                digest[index ++] = (byte) ((high << 4) | value);
+                high = -1;
+            }
+        }
+        return digest;
+    }
+}
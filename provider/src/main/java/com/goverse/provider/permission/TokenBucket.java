@@ -0,0 +1,46 @@
+package com.goverse.provider.permission;
+
+import com.goverse.provider.auth.AuthScope;
+
+/**
+ * Token bucket of a caller, refilled lazily when acquiring.
+ */
+class TokenBucket {
+
+    final AuthScope.RateLimit rateLimit;
+
+    private final double mPermitsPerNano;
+
+    private double mTokens;
+
+    private long mRefillNanos;
+
+    TokenBucket(AuthScope.RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+        mPermitsPerNano = rateLimit.permitsPerSecond / 1e9;
+        mTokens = rateLimit.burst;
+        mRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * whether the bucket has refilled to its burst, so that dropping it and creating it again
+     * later makes no difference to the caller.
+     * @return idle
+     */
+    synchronized boolean isIdle() {
+        return mTokens + (System.nanoTime() - mRefillNanos) * mPermitsPerNano >= rateLimit.burst;
+    }
+
+    /**
+     * take a token if available.
+     * @return acquired
+     */
+    synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        mTokens = Math.min(rateLimit.burst, mTokens + (now - mRefillNanos) * mPermitsPerNano);
+        mRefillNanos = now;
+        if (mTokens < 1) return false;
+        mTokens -= 1;
+        return true;
+    }
+}
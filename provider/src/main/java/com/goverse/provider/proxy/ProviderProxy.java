@@ -4,8 +4,12 @@ import android.content.ContentProvider;
 import android.content.pm.PathPermission;
 import android.content.pm.ProviderInfo;
 import android.net.Uri;
-import java.util.ArrayList;
-import java.util.List;
+import android.util.Log;
+import com.goverse.provider.util.ProviderExecutors;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A proxy of contentProcvider used to notify provider's initialization
@@ -48,9 +52,41 @@ public class ProviderProxy {
 
     private ProviderProxy() {}
 
-    private List<OnCallingListener> mOnCallingListeners = new ArrayList<>();
+    private final String TAG = ProviderProxy.class.getSimpleName();
 
-    private List<OnLifeCycleListener> mOnLifeCycleListeners = new ArrayList<>();
+    /**
+     * default capacity of event queue in async dispatch.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * listeners are copied on add or remove, so that binder threads iterate them without lock.
+     */
+    private volatile OnCallingListener[] mOnCallingListeners = new OnCallingListener[0];
+
+    private volatile OnLifeCycleListener[] mOnLifeCycleListeners = new OnLifeCycleListener[0];
+
+    /**
+     * Calling event waiting for async dispatch.
+     */
+    private static class CallingEvent {
+        final boolean write;
+        final Uri uri;
+
+        CallingEvent(boolean write, Uri uri) {
+            this.write = write;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * event queue of async dispatch, null if dispatching on calling thread.
+     */
+    private volatile BlockingQueue<CallingEvent> mEventQueue;
+
+    private final AtomicLong mDispatchedCount = new AtomicLong();
+
+    private final AtomicLong mDroppedCount = new AtomicLong();
 
     private ContentProvider mContentProvider;
 
@@ -70,20 +106,16 @@ public class ProviderProxy {
      * add OnCallingListener
      * @param onCallingListener onCallingListener
      */
-    public void addOnCallingListener(OnCallingListener onCallingListener) {
-        if (!mOnCallingListeners.contains(onCallingListener)) {
-            mOnCallingListeners.add(onCallingListener);
-        }
+    public synchronized void addOnCallingListener(OnCallingListener onCallingListener) {
+        mOnCallingListeners = add(mOnCallingListeners, onCallingListener);
     }
 
     /**
      * remove OnCallingListener
      * @param onCallingListener onCallingListener
      */
-    public void removeOnCallingListener(OnCallingListener onCallingListener) {
-        if (mOnCallingListeners.contains(onCallingListener)) {
-            mOnCallingListeners.remove(onCallingListener);
-        }
+    public synchronized void removeOnCallingListener(OnCallingListener onCallingListener) {
+        mOnCallingListeners = remove(mOnCallingListeners, onCallingListener);
     }
 
     /**
@@ -93,22 +125,116 @@ public class ProviderProxy {
      * attachBaseContext in application->attachInfo in provider->onCreate in provider->onCreate in application.
      * @param onLifeCycleListener onLifeCycleListener
      */
-    public void addOnLifeCycleListener(OnLifeCycleListener onLifeCycleListener) {
-        if (!mOnLifeCycleListeners.contains(onLifeCycleListener)) {
-            mOnLifeCycleListeners.add(onLifeCycleListener);
-        }
+    public synchronized void addOnLifeCycleListener(OnLifeCycleListener onLifeCycleListener) {
+        mOnLifeCycleListeners = add(mOnLifeCycleListeners, onLifeCycleListener);
     }
 
     /**
      * remove OnLifeCycleListener
      * @param onLifeCycleListener onLifeCycleListener
      */
-    public void removeOnLifeCycleListener(OnLifeCycleListener onLifeCycleListener) {
-        if (mOnLifeCycleListeners.contains(onLifeCycleListener)) {
-            mOnLifeCycleListeners.remove(onLifeCycleListener);
+    public synchronized void removeOnLifeCycleListener(OnLifeCycleListener onLifeCycleListener) {
+        mOnLifeCycleListeners = remove(mOnLifeCycleListeners, onLifeCycleListener);
+    }
+
+    private static <L> L[] add(L[] listeners, L listener) {
+        if (listener == null || indexOf(listeners, listener) >= 0) return listeners;
+        L[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        return newListeners;
+    }
+
+    private static <L> L[] remove(L[] listeners, L listener) {
+        int index = indexOf(listeners, listener);
+        if (index < 0) return listeners;
+        L[] newListeners = Arrays.copyOf(listeners, listeners.length - 1);
+        System.arraycopy(listeners, index + 1, newListeners, index, listeners.length - index - 1);
+        return newListeners;
+    }
+
+    private static <L> int indexOf(L[] listeners, L listener) {
+        for (int i = 0; i < listeners.length; i ++) {
+            if (listeners[i].equals(listener)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Dispatch OnCallingListener on a background thread, so that slow listeners never
+     * add latency to provider requests. Events beyond queue capacity are dropped and counted
+     * in {@link #getDroppedCount()}. Lifecycle listeners are always called synchronously.
+     * @param queueCapacity max events waiting for dispatch
+     */
+    public synchronized void enableAsyncDispatch(int queueCapacity) {
+        if (mEventQueue != null) return;
+        final BlockingQueue<CallingEvent> eventQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        ProviderExecutors.threadFactory("provider-proxy").newThread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop(eventQueue);
+            }
+        }).start();
+        mEventQueue = eventQueue;
+    }
+
+    public boolean isAsyncDispatch() {
+        return mEventQueue != null;
+    }
+
+    private void dispatchLoop(BlockingQueue<CallingEvent> eventQueue) {
+        while (true) {
+            CallingEvent event;
+            try {
+                event = eventQueue.take();
+            } catch (InterruptedException e) {
+                Log.d(TAG, "dispatchLoop---interrupted");
+                return;
+            }
+            try {
+                dispatch(event.write, event.uri);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void dispatch(boolean write, Uri uri) {
+        for (OnCallingListener onCallingListener : mOnCallingListeners) {
+            if (write) {
+                onCallingListener.onWrite(uri);
+            } else {
+                onCallingListener.onRead(uri);
+            }
+        }
+        mDispatchedCount.incrementAndGet();
+    }
+
+    private void post(boolean write, Uri uri) {
+        if (mOnCallingListeners.length == 0) return;
+        BlockingQueue<CallingEvent> eventQueue = mEventQueue;
+        if (eventQueue == null) {
+            dispatch(write, uri);
+        } else if (!eventQueue.offer(new CallingEvent(write, uri))) {
+            mDroppedCount.incrementAndGet();
         }
     }
 
+    /**
+     * count of calling events delivered to listeners.
+     * @return count
+     */
+    public long getDispatchedCount() {
+        return mDispatchedCount.get();
+    }
+
+    /**
+     * count of calling events dropped because queue of async dispatch is full.
+     * @return count
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
     /**
      * Return the package name of the caller that initiated the request being
      * processed on the current thread.{@link ContentProvider#getCallingPackage()}
@@ -167,9 +293,7 @@ public class ProviderProxy {
      * @param uri uri
      */
     public void notifyOnRead(Uri uri) {
-        for (OnCallingListener onCallingListener : mOnCallingListeners) {
-            onCallingListener.onRead(uri);
-        }
+        post(false, uri);
     }
 
     /**
@@ -177,9 +301,7 @@ public class ProviderProxy {
      * @param uri uri
      */
     public void notifyOnWrite(Uri uri) {
-        for (OnCallingListener onCallingListener : mOnCallingListeners) {
-            onCallingListener.onWrite(uri);
-        }
+        post(true, uri);
     }
 
 }
@@ -0,0 +1,28 @@
+package com.goverse.provider.selection;
+
+/**
+ * key of compiled text per reader, readers are compared by identity.
+ */
+final class CacheKey {
+
+    private final ColumnReader<?> mReader;
+
+    private final String mText;
+
+    CacheKey(ColumnReader<?> reader, String text) {
+        mReader = reader;
+        mText = text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CacheKey)) return false;
+        CacheKey other = (CacheKey) o;
+        return mReader == other.mReader && mText.equals(other.mText);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(mReader) + mText.hashCode();
+    }
+}
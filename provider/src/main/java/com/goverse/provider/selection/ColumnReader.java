@@ -0,0 +1,26 @@
+package com.goverse.provider.selection;
+
+/**
+ * Typed access to columns of rows, by which {@link Selection} and {@link RowOrder}
+ * are evaluated without converting rows to cursor or ContentValues.
+ * Column types are {@link com.goverse.provider.adapter.AccessorPlan} TYPE_*,
+ * only the getter of column type is called.
+ * @param <R> row
+ */
+public interface ColumnReader<R> {
+
+    /**
+     * get index of column.
+     * @param column column name
+     * @return index, -1 if not found
+     */
+    int indexOf(String column);
+
+    int getType(int index);
+
+    long getLong(R row, int index);
+
+    double getDouble(R row, int index);
+
+    String getString(R row, int index);
+}
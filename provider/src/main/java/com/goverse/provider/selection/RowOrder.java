@@ -0,0 +1,175 @@
+package com.goverse.provider.selection;
+
+import com.goverse.provider.adapter.AccessorPlan;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sort order compiled from {@code column [ASC|DESC], ... [LIMIT n]}, cached by text per reader.
+ * A bare {@code ASC} or {@code DESC} without column sets {@link #isDescending()} for adapters
+ * with a natural order, such as insertion order. Null strings sort first, like SQLite.
+ */
+public final class RowOrder {
+
+    private static final int MAX_CACHE_SIZE = 64;
+
+    private static final ConcurrentHashMap<CacheKey, RowOrder> sCache = new ConcurrentHashMap<>();
+
+    private static final RowOrder NATURAL = new RowOrder(new int[0], new int[0], new boolean[0], false, -1);
+
+    private final int[] mColumns;
+
+    private final int[] mTypes;
+
+    private final boolean[] mDescending;
+
+    private final boolean mNaturalDescending;
+
+    private final int mLimit;
+
+    private RowOrder(int[] columns, int[] types, boolean[] descending, boolean naturalDescending, int limit) {
+        mColumns = columns;
+        mTypes = types;
+        mDescending = descending;
+        mNaturalDescending = naturalDescending;
+        mLimit = limit;
+    }
+
+    /**
+     * compile sortOrder for rows of reader.
+     * @param sortOrder sortOrder, null for natural order
+     * @param reader reader resolving column names and types, compared by identity
+     * @return order
+     * @throws IllegalArgumentException if sortOrder is unsupported or refers to unknown column
+     */
+    public static RowOrder compile(String sortOrder, ColumnReader<?> reader) {
+        if (sortOrder == null || sortOrder.trim().isEmpty()) return NATURAL;
+        CacheKey key = new CacheKey(reader, sortOrder);
+        RowOrder order = sCache.get(key);
+        if (order == null) {
+            order = parse(sortOrder, reader);
+            if (sCache.size() >= MAX_CACHE_SIZE) {
+                sCache.clear();
+            }
+            sCache.put(key, order);
+        }
+        return order;
+    }
+
+    private static RowOrder parse(String sortOrder, ColumnReader<?> reader) {
+        String text = sortOrder.trim();
+        int limit = -1;
+        int limitAt = text.toUpperCase(Locale.US).lastIndexOf("LIMIT");
+        if (limitAt >= 0 && (limitAt == 0 || Character.isWhitespace(text.charAt(limitAt - 1)))) {
+            String count = text.substring(limitAt + "LIMIT".length()).trim();
+            try {
+                limit = Math.max(0, Integer.parseInt(count));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid limit '" + count + "' of sortOrder: " + sortOrder);
+            }
+            text = text.substring(0, limitAt).trim();
+        }
+        List<Integer> columns = new ArrayList<>();
+        List<Boolean> descending = new ArrayList<>();
+        boolean naturalDescending = false;
+        if (!text.isEmpty()) {
+            for (String term : text.split(",")) {
+                String[] words = term.trim().split("\\s+");
+                if (words.length == 1 && ("ASC".equalsIgnoreCase(words[0]) || "DESC".equalsIgnoreCase(words[0]))) {
+                    naturalDescending = "DESC".equalsIgnoreCase(words[0]);
+                    continue;
+                }
+                if (words.length > 2 || (words.length == 2 && !"ASC".equalsIgnoreCase(words[1]) && !"DESC".equalsIgnoreCase(words[1]))) {
+                    throw new IllegalArgumentException("unsupported term '" + term.trim() + "' of sortOrder: " + sortOrder);
+                }
+                String name = words[0];
+                if (name.length() > 1 && (name.charAt(0) == '"' || name.charAt(0) == '`')) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                int column = reader.indexOf(name);
+                if (column < 0) {
+                    throw new IllegalArgumentException("unknown column '" + name + "' of sortOrder: " + sortOrder);
+                }
+                columns.add(column);
+                descending.add(words.length == 2 && "DESC".equalsIgnoreCase(words[1]));
+            }
+        }
+        int[] columnArray = new int[columns.size()];
+        int[] typeArray = new int[columns.size()];
+        boolean[] descendingArray = new boolean[columns.size()];
+        for (int i = 0; i < columnArray.length; i ++) {
+            columnArray[i] = columns.get(i);
+            typeArray[i] = reader.getType(columnArray[i]);
+            descendingArray[i] = descending.get(i);
+        }
+        return new RowOrder(columnArray, typeArray, descendingArray, naturalDescending, limit);
+    }
+
+    /**
+     * whether rows are ordered by columns, otherwise keep natural order.
+     * @return hasKeys
+     */
+    public boolean hasKeys() {
+        return mColumns.length > 0;
+    }
+
+    /**
+     * bare DESC without column, natural order reversed.
+     * @return isDescending
+     */
+    public boolean isDescending() {
+        return mNaturalDescending;
+    }
+
+    /**
+     * @return max rows, -1 if no limit
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * compare rows by key columns.
+     */
+    public <R> int compare(ColumnReader<R> reader, R a, R b) {
+        for (int i = 0; i < mColumns.length; i ++) {
+            int column = mColumns[i];
+            int result;
+            switch (mTypes[i]) {
+                case AccessorPlan.TYPE_STRING:
+                    String left = reader.getString(a, column);
+                    String right = reader.getString(b, column);
+                    result = left == null ? (right == null ? 0 : -1) : (right == null ? 1 : left.compareTo(right));
+                    break;
+                case AccessorPlan.TYPE_DOUBLE:
+                    result = Double.compare(reader.getDouble(a, column), reader.getDouble(b, column));
+                    break;
+                default:
+                    long leftLong = reader.getLong(a, column);
+                    long rightLong = reader.getLong(b, column);
+                    result = leftLong < rightLong ? -1 : (leftLong == rightLong ? 0 : 1);
+                    break;
+            }
+            if (result != 0) return mDescending[i] ? -result : result;
+        }
+        return 0;
+    }
+
+    /**
+     * comparator of rows by key columns.
+     * @param reader reader
+     * @return comparator
+     */
+    public <R> Comparator<R> comparator(final ColumnReader<R> reader) {
+        return new Comparator<R>() {
+            @Override
+            public int compare(R a, R b) {
+                return RowOrder.this.compare(reader, a, b);
+            }
+        };
+    }
+}
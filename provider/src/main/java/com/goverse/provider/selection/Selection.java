@@ -0,0 +1,392 @@
+package com.goverse.provider.selection;
+
+import com.goverse.provider.adapter.AccessorPlan;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selection compiled from a subset of SQL WHERE clause, evaluated against rows by {@link ColumnReader}.
+ * Supported: column compared with {@code = == != <> < <= > >=} to a literal or {@code ?},
+ * {@code [NOT] IN (...)}, {@code [NOT] BETWEEN a AND b}, {@code [NOT] LIKE} with {@code %} and {@code _}
+ * ignoring ASCII case, {@code IS [NOT] NULL}, combined by {@code AND OR NOT} and parentheses.
+ * Numeric columns compare numerically, boolean columns as 1 and 0, string columns as strings.
+ * Compiled selections are cached by text per reader, args are bound per query by {@link #bind(String[])}.
+ */
+public final class Selection {
+
+    private static final int MAX_CACHE_SIZE = 128;
+
+    private static final ConcurrentHashMap<CacheKey, Selection> sCache = new ConcurrentHashMap<>();
+
+    private static final Selection MATCH_ALL = new Selection(null, new Operand[0], 0);
+
+    private static final Filter ALL = new Filter(null, null);
+
+    private final Node mRoot;
+
+    private final Operand[] mOperands;
+
+    private final int mArgCount;
+
+    Selection(Node root, Operand[] operands, int argCount) {
+        mRoot = root;
+        mOperands = operands;
+        mArgCount = argCount;
+    }
+
+    /**
+     * compile selection for rows of reader, cached by text.
+     * @param selection selection, null or empty to match all
+     * @param reader reader resolving column names and types, compared by identity
+     * @return selection
+     * @throws IllegalArgumentException if selection is unsupported or refers to unknown column
+     */
+    public static Selection compile(String selection, ColumnReader<?> reader) {
+        if (selection == null || selection.trim().isEmpty()) return MATCH_ALL;
+        CacheKey key = new CacheKey(reader, selection);
+        Selection compiled = sCache.get(key);
+        if (compiled == null) {
+            compiled = new SelectionParser(selection, reader).parse();
+            if (sCache.size() >= MAX_CACHE_SIZE) {
+                sCache.clear();
+            }
+            sCache.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    public boolean isMatchAll() {
+        return mRoot == null;
+    }
+
+    /**
+     * count of args referred by {@code ?}.
+     * @return count
+     */
+    public int getArgCount() {
+        return mArgCount;
+    }
+
+    /**
+     * bind args converted to types of compared columns.
+     * @param selectionArgs selectionArgs
+     * @return filter
+     * @throws IllegalArgumentException if args are too few, or not a number compared to numeric column
+     */
+    public Filter bind(String[] selectionArgs) {
+        if (mRoot == null) return ALL;
+        int argCount = selectionArgs != null ? selectionArgs.length : 0;
+        if (argCount < mArgCount) {
+            throw new IllegalArgumentException("selection requires " + mArgCount + " args, but " + argCount + " given");
+        }
+        Values values = new Values(mOperands.length);
+        for (int i = 0; i < mOperands.length; i ++) {
+            Operand operand = mOperands[i];
+            String value = operand.argIndex >= 0 ? selectionArgs[operand.argIndex] : operand.literal;
+            values.set(i, operand.type, value);
+        }
+        return new Filter(mRoot, values);
+    }
+
+    /**
+     * selection bound with args, immutable and shareable between threads.
+     */
+    public static final class Filter {
+
+        private final Node mRoot;
+
+        private final Values mValues;
+
+        Filter(Node root, Values values) {
+            mRoot = root;
+            mValues = values;
+        }
+
+        public boolean isMatchAll() {
+            return mRoot == null;
+        }
+
+        public <R> boolean matches(ColumnReader<R> reader, R row) {
+            return mRoot == null || mRoot.eval(reader, row, mValues);
+        }
+    }
+
+    /**
+     * literal or arg compared to a column, converted to column type when bound.
+     */
+    static final class Operand {
+        final int type;
+        final int argIndex;
+        final String literal;
+
+        Operand(int type, int argIndex, String literal) {
+            this.type = type;
+            this.argIndex = argIndex;
+            this.literal = literal;
+        }
+    }
+
+    /**
+     * bound operand values by operand index.
+     */
+    static final class Values {
+        final long[] longs;
+        final double[] doubles;
+        /**
+         * numeric operand is not integral, compared as double.
+         */
+        final boolean[] fractional;
+        final String[] strings;
+
+        Values(int count) {
+            longs = new long[count];
+            doubles = new double[count];
+            fractional = new boolean[count];
+            strings = new String[count];
+        }
+
+        void set(int i, int type, String value) {
+            strings[i] = value;
+            if (type == AccessorPlan.TYPE_STRING || value == null) return;
+            if (type == AccessorPlan.TYPE_BOOLEAN) {
+                if ("true".equalsIgnoreCase(value)) value = "1";
+                else if ("false".equalsIgnoreCase(value)) value = "0";
+            }
+            try {
+                longs[i] = Long.parseLong(value.trim());
+                doubles[i] = longs[i];
+            } catch (NumberFormatException e) {
+                try {
+                    doubles[i] = Double.parseDouble(value.trim());
+                    fractional[i] = true;
+                } catch (NumberFormatException e1) {
+                    throw new IllegalArgumentException("not a number: " + value);
+                }
+            }
+        }
+    }
+
+    /**
+     * node of compiled selection.
+     */
+    abstract static class Node {
+        abstract <R> boolean eval(ColumnReader<R> reader, R row, Values values);
+    }
+
+    static final class And extends Node {
+        final Node[] children;
+
+        And(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            for (Node child : children) {
+                if (!child.eval(reader, row, values)) return false;
+            }
+            return true;
+        }
+    }
+
+    static final class Or extends Node {
+        final Node[] children;
+
+        Or(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            for (Node child : children) {
+                if (child.eval(reader, row, values)) return true;
+            }
+            return false;
+        }
+    }
+
+    static final class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            return !child.eval(reader, row, values);
+        }
+    }
+
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+
+    /**
+     * compare column to operand.
+     * @return negative, zero or positive, or {@link Integer#MIN_VALUE} if either is null
+     */
+    static <R> int compare(ColumnReader<R> reader, R row, int column, int type, Values values, int operand) {
+        switch (type) {
+            case AccessorPlan.TYPE_STRING:
+                String value = reader.getString(row, column);
+                String other = values.strings[operand];
+                if (value == null || other == null) return Integer.MIN_VALUE;
+                return value.compareTo(other);
+            case AccessorPlan.TYPE_DOUBLE:
+                if (values.strings[operand] == null) return Integer.MIN_VALUE;
+                return Double.compare(reader.getDouble(row, column), values.doubles[operand]);
+            default:
+                if (values.strings[operand] == null) return Integer.MIN_VALUE;
+                long asLong = reader.getLong(row, column);
+                if (values.fractional[operand]) return Double.compare(asLong, values.doubles[operand]);
+                return asLong < values.longs[operand] ? -1 : (asLong == values.longs[operand] ? 0 : 1);
+        }
+    }
+
+    static final class Compare extends Node {
+        final int column;
+        final int type;
+        final int op;
+        final int operand;
+
+        Compare(int column, int type, int op, int operand) {
+            this.column = column;
+            this.type = type;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            int result = compare(reader, row, column, type, values, operand);
+            if (result == Integer.MIN_VALUE) return false;
+            switch (op) {
+                case EQ: return result == 0;
+                case NE: return result != 0;
+                case LT: return result < 0;
+                case LE: return result <= 0;
+                case GT: return result > 0;
+                default: return result >= 0;
+            }
+        }
+    }
+
+    static final class In extends Node {
+        final int column;
+        final int type;
+        final int[] operands;
+
+        In(int column, int type, int[] operands) {
+            this.column = column;
+            this.type = type;
+            this.operands = operands;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            for (int operand : operands) {
+                if (compare(reader, row, column, type, values, operand) == 0) return true;
+            }
+            return false;
+        }
+    }
+
+    static final class Between extends Node {
+        final int column;
+        final int type;
+        final int low;
+        final int high;
+
+        Between(int column, int type, int low, int high) {
+            this.column = column;
+            this.type = type;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            int toLow = compare(reader, row, column, type, values, low);
+            int toHigh = compare(reader, row, column, type, values, high);
+            return toLow != Integer.MIN_VALUE && toHigh != Integer.MIN_VALUE && toLow >= 0 && toHigh <= 0;
+        }
+    }
+
+    static final class IsNull extends Node {
+        final int column;
+        final int type;
+
+        IsNull(int column, int type) {
+            this.column = column;
+            this.type = type;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            // primitive columns are never null.
+            return type == AccessorPlan.TYPE_STRING && reader.getString(row, column) == null;
+        }
+    }
+
+    static final class Like extends Node {
+        final int column;
+        final int type;
+        final int operand;
+
+        Like(int column, int type, int operand) {
+            this.column = column;
+            this.type = type;
+            this.operand = operand;
+        }
+
+        @Override
+        <R> boolean eval(ColumnReader<R> reader, R row, Values values) {
+            String pattern = values.strings[operand];
+            String value;
+            switch (type) {
+                case AccessorPlan.TYPE_STRING: value = reader.getString(row, column); break;
+                case AccessorPlan.TYPE_DOUBLE: value = String.valueOf(reader.getDouble(row, column)); break;
+                default: value = String.valueOf(reader.getLong(row, column)); break;
+            }
+            return value != null && pattern != null && like(pattern, value);
+        }
+    }
+
+    /**
+     * match like SQLite LIKE, % any chars, _ one char, ASCII letters ignoring case.
+     */
+    static boolean like(String pattern, String value) {
+        int p = 0;
+        int v = 0;
+        // position after last %, and value position it is retried from.
+        int starP = -1;
+        int starV = 0;
+        while (v < value.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '%') {
+                starP = ++ p;
+                starV = v;
+            } else if (p < pattern.length() && (pattern.charAt(p) == '_' || equalsIgnoreAsciiCase(pattern.charAt(p), value.charAt(v)))) {
+                p ++;
+                v ++;
+            } else if (starP >= 0) {
+                p = starP;
+                v = ++ starV;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '%') p ++;
+        return p == pattern.length();
+    }
+
+    private static boolean equalsIgnoreAsciiCase(char a, char b) {
+        if (a == b) return true;
+        if (a >= 'A' && a <= 'Z') a += 'a' - 'A';
+        if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+        return a == b;
+    }
+}
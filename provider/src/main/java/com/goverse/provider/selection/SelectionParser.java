@@ -0,0 +1,285 @@
+package com.goverse.provider.selection;
+
+import com.goverse.provider.adapter.AccessorPlan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive descent parser of selection, see {@link Selection} for the supported subset.
+ * <pre>
+ * or      := and (OR and)*
+ * and     := not (AND not)*
+ * not     := NOT not | primary
+ * primary := ( or ) | column predicate
+ * </pre>
+ */
+class SelectionParser {
+
+    private static final int END = 0;
+    private static final int IDENTIFIER = 1;
+    private static final int NUMBER = 2;
+    private static final int STRING = 3;
+    private static final int ARG = 4;
+    private static final int SYMBOL = 5;
+
+    private final String mText;
+
+    private final ColumnReader<?> mReader;
+
+    private int mPosition;
+
+    private int mTokenType;
+
+    private String mToken;
+
+    private int mArgCount;
+
+    private final List<Selection.Operand> mOperands = new ArrayList<>();
+
+    SelectionParser(String text, ColumnReader<?> reader) {
+        mText = text;
+        mReader = reader;
+    }
+
+    Selection parse() {
+        next();
+        Selection.Node root = parseOr();
+        if (mTokenType != END) {
+            throw error("unexpected '" + mToken + "'");
+        }
+        return new Selection(root, mOperands.toArray(new Selection.Operand[mOperands.size()]), mArgCount);
+    }
+
+    private Selection.Node parseOr() {
+        Selection.Node node = parseAnd();
+        if (!isKeyword("OR")) return node;
+        List<Selection.Node> children = new ArrayList<>();
+        children.add(node);
+        while (isKeyword("OR")) {
+            next();
+            children.add(parseAnd());
+        }
+        return new Selection.Or(children.toArray(new Selection.Node[children.size()]));
+    }
+
+    private Selection.Node parseAnd() {
+        Selection.Node node = parseNot();
+        if (!isKeyword("AND")) return node;
+        List<Selection.Node> children = new ArrayList<>();
+        children.add(node);
+        while (isKeyword("AND")) {
+            next();
+            children.add(parseNot());
+        }
+        return new Selection.And(children.toArray(new Selection.Node[children.size()]));
+    }
+
+    private Selection.Node parseNot() {
+        if (isKeyword("NOT")) {
+            next();
+            return new Selection.Not(parseNot());
+        }
+        return parsePrimary();
+    }
+
+    private Selection.Node parsePrimary() {
+        if (isSymbol("(")) {
+            next();
+            Selection.Node node = parseOr();
+            expectSymbol(")");
+            return node;
+        }
+        if (mTokenType != IDENTIFIER) {
+            throw error("expected column but found '" + mToken + "'");
+        }
+        String name = mToken;
+        int column = mReader.indexOf(name);
+        if (column < 0) {
+            throw error("unknown column '" + name + "'");
+        }
+        int type = mReader.getType(column);
+        next();
+        if (isKeyword("IS")) {
+            next();
+            boolean not = false;
+            if (isKeyword("NOT")) {
+                not = true;
+                next();
+            }
+            expectKeyword("NULL");
+            Selection.Node node = new Selection.IsNull(column, type);
+            return not ? new Selection.Not(node) : node;
+        }
+        boolean not = false;
+        if (isKeyword("NOT")) {
+            not = true;
+            next();
+        }
+        Selection.Node node;
+        if (isKeyword("IN")) {
+            next();
+            expectSymbol("(");
+            List<Integer> operands = new ArrayList<>();
+            operands.add(parseOperand(type));
+            while (isSymbol(",")) {
+                next();
+                operands.add(parseOperand(type));
+            }
+            expectSymbol(")");
+            int[] indexes = new int[operands.size()];
+            for (int i = 0; i < indexes.length; i ++) indexes[i] = operands.get(i);
+            node = new Selection.In(column, type, indexes);
+        } else if (isKeyword("BETWEEN")) {
+            next();
+            int low = parseOperand(type);
+            expectKeyword("AND");
+            node = new Selection.Between(column, type, low, parseOperand(type));
+        } else if (isKeyword("LIKE")) {
+            next();
+            // pattern is matched as text whatever the column type.
+            node = new Selection.Like(column, type, parseOperand(AccessorPlan.TYPE_STRING));
+        } else if (!not && mTokenType == SYMBOL) {
+            int op = parseComparison();
+            node = new Selection.Compare(column, type, op, parseOperand(type));
+        } else {
+            throw error("unsupported predicate '" + mToken + "' of column '" + name + "'");
+        }
+        return not ? new Selection.Not(node) : node;
+    }
+
+    private int parseComparison() {
+        String op = mToken;
+        next();
+        switch (op) {
+            case "=":
+            case "==": return Selection.EQ;
+            case "!=":
+            case "<>": return Selection.NE;
+            case "<": return Selection.LT;
+            case "<=": return Selection.LE;
+            case ">": return Selection.GT;
+            case ">=": return Selection.GE;
+            default: throw error("unsupported operator '" + op + "'");
+        }
+    }
+
+    /**
+     * parse literal or arg.
+     * @param type type of compared column
+     * @return operand index
+     */
+    private int parseOperand(int type) {
+        Selection.Operand operand;
+        if (mTokenType == ARG) {
+            int argIndex;
+            if (mToken.length() > 1) {
+                try {
+                    argIndex = Integer.parseInt(mToken.substring(1)) - 1;
+                } catch (NumberFormatException e) {
+                    throw error("invalid arg '" + mToken + "'");
+                }
+                if (argIndex < 0) throw error("invalid arg '" + mToken + "'");
+            } else {
+                argIndex = mArgCount;
+            }
+            mArgCount = Math.max(mArgCount, argIndex + 1);
+            operand = new Selection.Operand(type, argIndex, null);
+        } else if (mTokenType == NUMBER || mTokenType == STRING) {
+            operand = new Selection.Operand(type, -1, mToken);
+        } else if (isSymbol("-")) {
+            next();
+            if (mTokenType != NUMBER) throw error("expected number after '-'");
+            operand = new Selection.Operand(type, -1, "-" + mToken);
+        } else if (mTokenType == IDENTIFIER && ("TRUE".equalsIgnoreCase(mToken) || "FALSE".equalsIgnoreCase(mToken))) {
+            operand = new Selection.Operand(type, -1, mToken);
+        } else {
+            throw error("expected literal or ? but found '" + mToken + "'");
+        }
+        next();
+        mOperands.add(operand);
+        return mOperands.size() - 1;
+    }
+
+    private boolean isKeyword(String keyword) {
+        return mTokenType == IDENTIFIER && keyword.equalsIgnoreCase(mToken);
+    }
+
+    private boolean isSymbol(String symbol) {
+        return mTokenType == SYMBOL && symbol.equals(mToken);
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!isKeyword(keyword)) throw error("expected " + keyword + " but found '" + mToken + "'");
+        next();
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!isSymbol(symbol)) throw error("expected '" + symbol + "' but found '" + mToken + "'");
+        next();
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + mPosition + " of selection: " + mText);
+    }
+
+    private void next() {
+        int length = mText.length();
+        while (mPosition < length && Character.isWhitespace(mText.charAt(mPosition))) mPosition ++;
+        if (mPosition >= length) {
+            mTokenType = END;
+            mToken = "<end>";
+            return;
+        }
+        char c = mText.charAt(mPosition);
+        int start = mPosition;
+        if (Character.isLetter(c) || c == '_') {
+            while (mPosition < length && (Character.isLetterOrDigit(mText.charAt(mPosition)) || mText.charAt(mPosition) == '_')) mPosition ++;
+            mTokenType = IDENTIFIER;
+            mToken = mText.substring(start, mPosition);
+        } else if (c == '"' || c == '`') {
+            int end = mText.indexOf(c, start + 1);
+            if (end < 0) throw error("unterminated identifier");
+            mTokenType = IDENTIFIER;
+            mToken = mText.substring(start + 1, end);
+            mPosition = end + 1;
+        } else if (Character.isDigit(c) || (c == '.' && mPosition + 1 < length && Character.isDigit(mText.charAt(mPosition + 1)))) {
+            while (mPosition < length && (Character.isDigit(mText.charAt(mPosition)) || mText.charAt(mPosition) == '.'
+                    || mText.charAt(mPosition) == 'e' || mText.charAt(mPosition) == 'E')) mPosition ++;
+            mTokenType = NUMBER;
+            mToken = mText.substring(start, mPosition);
+        } else if (c == '\'') {
+            StringBuilder sb = new StringBuilder();
+            mPosition ++;
+            while (true) {
+                if (mPosition >= length) throw error("unterminated string");
+                char ch = mText.charAt(mPosition ++);
+                if (ch == '\'') {
+                    // '' is an escaped quote.
+                    if (mPosition < length && mText.charAt(mPosition) == '\'') {
+                        sb.append('\'');
+                        mPosition ++;
+                        continue;
+                    }
+                    break;
+                }
+                sb.append(ch);
+            }
+            mTokenType = STRING;
+            mToken = sb.toString();
+        } else if (c == '?') {
+            mPosition ++;
+            while (mPosition < length && Character.isDigit(mText.charAt(mPosition))) mPosition ++;
+            mTokenType = ARG;
+            mToken = mText.substring(start, mPosition);
+        } else {
+            mPosition ++;
+            if (mPosition < length && (c == '<' || c == '>' || c == '!' || c == '=')) {
+                char second = mText.charAt(mPosition);
+                if (second == '=' || (c == '<' && second == '>')) mPosition ++;
+            }
+            mTokenType = SYMBOL;
+            mToken = mText.substring(start, mPosition);
+        }
+    }
+}
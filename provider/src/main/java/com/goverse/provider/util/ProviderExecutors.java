@@ -0,0 +1,94 @@
+package com.goverse.provider.util;
+
+import android.os.Process;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background executors shared by provider components,
+ * keeping loading and persistence work off binder threads and main thread.
+ */
+public final class ProviderExecutors {
+
+    private static volatile ScheduledExecutorService sBackground;
+
+    private static volatile ExecutorService sExport;
+
+    /**
+     * max exports written at the same time, more are queued.
+     */
+    private static final int MAX_EXPORT_THREADS = 2;
+
+    /**
+     * max exports waiting for a thread, more are rejected.
+     */
+    private static final int MAX_QUEUED_EXPORTS = 8;
+
+    private ProviderExecutors() {}
+
+    /**
+     * get shared single-thread executor for short background work.
+     * @return executor
+     */
+    public static ScheduledExecutorService background() {
+        if (sBackground == null) {
+            synchronized (ProviderExecutors.class) {
+                if (sBackground == null) {
+                    sBackground = Executors.newSingleThreadScheduledExecutor(threadFactory("provider-background"));
+                }
+            }
+        }
+        return sBackground;
+    }
+
+    /**
+     * get shared executor writing exports into pipes, writes block while readers are behind,
+     * so that they are kept off {@link #background()}.
+     * Execute throws {@link java.util.concurrent.RejectedExecutionException} when its queue is full.
+     * @return executor
+     */
+    public static ExecutorService export() {
+        if (sExport == null) {
+            synchronized (ProviderExecutors.class) {
+                if (sExport == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_EXPORT_THREADS, MAX_EXPORT_THREADS,
+                            30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_EXPORTS), threadFactory("provider-export"));
+                    executor.allowCoreThreadTimeOut(true);
+                    sExport = executor;
+                }
+            }
+        }
+        return sExport;
+    }
+
+    /**
+     * create thread factory for daemon threads running in background priority.
+     * @param name thread name prefix
+     * @return threadFactory
+     */
+    public static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + "-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
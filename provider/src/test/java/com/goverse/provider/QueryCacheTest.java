@@ -0,0 +1,196 @@
+package com.goverse.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import com.goverse.provider.adapter.RecordCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class QueryCacheTest {
+
+    private static final Route ROUTE = new Route(1, null, null);
+
+    private static final long TTL = 1000;
+
+    static class StubAdapter extends ContentAdapter {
+
+        StubAdapter() {
+            super(null);
+        }
+
+        @Override
+        public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public boolean insert(ContentValues values) {
+            return false;
+        }
+
+        @Override
+        public int update(ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int delete(String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    /**
+     * cursor of rows × 2 cells, first column the row number plus base.
+     */
+    private static RecordCursor cursor(int rows, long base) {
+        RecordCursor cursor = new RecordCursor(new String[]{"step", "distance"}, rows);
+        for (int i = 0; i < rows; i ++) {
+            cursor.newRow();
+            cursor.putLong(0, base + i);
+            cursor.putDouble(1, i * 0.5);
+        }
+        return cursor;
+    }
+
+    private static void assertRows(Cursor cursor, int rows, long base) {
+        assertNotNull(cursor);
+        try {
+            assertEquals(rows, cursor.getCount());
+            for (int i = 0; i < rows; i ++) {
+                assertTrue(cursor.moveToPosition(i));
+                assertEquals(base + i, cursor.getLong(0));
+                assertEquals(i * 0.5, cursor.getDouble(1), 0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void put(QueryCache cache, String key, ContentAdapter adapter, RecordCursor cursor) {
+        cache.put(key, adapter, cache.generation(adapter), TTL, cursor).close();
+    }
+
+    @Test
+    public void key_distinguishesNullAndEmpty() {
+        assertFalse(QueryCache.key(ROUTE, null, null, null, null).equals(QueryCache.key(ROUTE, new String[0], null, null, null)));
+        assertFalse(QueryCache.key(ROUTE, null, null, null, null).equals(QueryCache.key(ROUTE, null, "null", null, null)));
+        assertFalse(QueryCache.key(ROUTE, null, null, null, null).equals(QueryCache.key(ROUTE, null, null, new String[]{null}, null)));
+    }
+
+    @Test
+    public void key_distinguishesJoinedArgs() {
+        assertFalse(QueryCache.key(ROUTE, null, "a = ?", new String[]{"a\u0001b"}, null)
+                .equals(QueryCache.key(ROUTE, null, "a = ?", new String[]{"a", "b"}, null)));
+        assertFalse(QueryCache.key(ROUTE, new String[]{"a"}, "b", null, null)
+                .equals(QueryCache.key(ROUTE, new String[]{"a", "b"}, null, null, null)));
+    }
+
+    @Test
+    public void key_sameQuerySameKey() {
+        assertEquals(QueryCache.key(ROUTE, new String[]{"step"}, "step > ?", new String[]{"1"}, "step DESC"),
+                QueryCache.key(ROUTE, new String[]{"step"}, "step > ?", new String[]{"1"}, "step DESC"));
+    }
+
+    @Test
+    public void get_servesPutRowsUntilInvalidated() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_CELLS);
+        ContentAdapter adapter = new StubAdapter();
+        assertRows(cache.put("a", adapter, cache.generation(adapter), TTL, cursor(3, 10)), 3, 10);
+        assertRows(cache.get("a", adapter), 3, 10);
+        // every hit is a cursor of its own.
+        assertRows(cache.get("a", adapter), 3, 10);
+        cache.invalidate(adapter);
+        assertNull(cache.get("a", adapter));
+    }
+
+    @Test
+    public void invalidate_keepsEntriesOfOtherAdapters() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_CELLS);
+        ContentAdapter written = new StubAdapter();
+        ContentAdapter other = new StubAdapter();
+        put(cache, "a", written, cursor(2, 0));
+        put(cache, "b", other, cursor(2, 100));
+        cache.invalidate(written);
+        assertNull(cache.get("a", written));
+        assertRows(cache.get("b", other), 2, 100);
+    }
+
+    @Test
+    public void put_writtenWhileQuerying_notServed() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_CELLS);
+        ContentAdapter adapter = new StubAdapter();
+        long generation = cache.generation(adapter);
+        // a write lands after the query read its generation and before its result is put.
+        cache.invalidate(adapter);
+        assertRows(cache.put("a", adapter, generation, TTL, cursor(2, 0)), 2, 0);
+        assertNull(cache.get("a", adapter));
+        put(cache, "a", adapter, cursor(2, 50));
+        assertRows(cache.get("a", adapter), 2, 50);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedBeyondMaxEntries() {
+        QueryCache cache = new QueryCache(2, QueryCache.DEFAULT_MAX_CELLS);
+        ContentAdapter adapter = new StubAdapter();
+        put(cache, "a", adapter, cursor(1, 0));
+        put(cache, "b", adapter, cursor(1, 1));
+        assertRows(cache.get("a", adapter), 1, 0);
+        put(cache, "c", adapter, cursor(1, 2));
+        assertNull(cache.get("b", adapter));
+        assertRows(cache.get("a", adapter), 1, 0);
+        assertRows(cache.get("c", adapter), 1, 2);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedBeyondMaxCells() {
+        // a result takes at most a quarter of cells, 10 cells of 5 rows here.
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES, 40);
+        ContentAdapter adapter = new StubAdapter();
+        for (int i = 0; i < 4; i ++) {
+            put(cache, "k" + i, adapter, cursor(5, i));
+        }
+        assertRows(cache.get("k0", adapter), 5, 0);
+        put(cache, "k4", adapter, cursor(5, 4));
+        assertNull(cache.get("k1", adapter));
+        assertRows(cache.get("k0", adapter), 5, 0);
+        assertRows(cache.get("k4", adapter), 5, 4);
+        // too large to cache, still returned.
+        assertRows(cache.put("large", adapter, cache.generation(adapter), TTL, cursor(6, 0)), 6, 0);
+        assertNull(cache.get("large", adapter));
+        assertRows(cache.get("k2", adapter), 5, 2);
+    }
+
+    @Test
+    public void get_expiresAfterTtl() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_CELLS);
+        ContentAdapter adapter = new StubAdapter();
+        put(cache, "a", adapter, cursor(1, 0));
+        SystemClock.sleep(TTL - 1);
+        assertRows(cache.get("a", adapter), 1, 0);
+        SystemClock.sleep(1);
+        assertNull(cache.get("a", adapter));
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_CELLS);
+        ContentAdapter adapter = new StubAdapter();
+        assertNull(cache.get("a", adapter));
+        put(cache, "a", adapter, cursor(1, 0));
+        cache.get("a", adapter).close();
+        cache.get("a", adapter).close();
+        cache.invalidate(adapter);
+        assertNull(cache.get("a", adapter));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+}
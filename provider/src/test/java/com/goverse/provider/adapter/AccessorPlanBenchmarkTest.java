@@ -0,0 +1,90 @@
+package com.goverse.provider.adapter;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.*;
+
+/**
+ * Microbenchmark of building a cursor row by reflective field lookup
+ * against building it with a cached {@link AccessorPlan}, run manually,
+ * correctness is covered by {@link AccessorPlanTest}.
+ */
+@Ignore("benchmark, run manually")
+public class AccessorPlanBenchmarkTest {
+
+    private static final int WARM_UP = 20_000;
+
+    private static final int ITERATIONS = 200_000;
+
+    private static final String[] PROJECTION = {"step", "calorie", "distance", "timeStamp"};
+
+    public static class Record {
+        public long timeStamp = 1624240480000L;
+        public long step = 8000;
+        public double distance = 5.6;
+        public double calorie = 320.5;
+        public long stepGoal = 10000;
+        public double duration = 3600;
+    }
+
+    @Test
+    public void benchmark_buildRow() throws Exception {
+        Record record = new Record();
+        long sink = 0;
+        for (int i = 0; i < WARM_UP; i ++) {
+            sink += reflectiveRow(record).length + planRow(record).length;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            sink += reflectiveRow(record).length;
+        }
+        long reflective = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            sink += planRow(record).length;
+        }
+        long plan = System.nanoTime() - start;
+
+        System.out.println("reflective lookup: " + reflective / ITERATIONS + " ns/row, accessor plan: "
+                + plan / ITERATIONS + " ns/row, sink: " + sink);
+        assertTrue(sink > 0);
+    }
+
+    /**
+     * row building as done before accessor plan: lookup and type branch per column.
+     */
+    private static Object[] reflectiveRow(Record record) throws Exception {
+        Object[] row = new Object[PROJECTION.length];
+        for (int i = 0; i < PROJECTION.length; i ++) {
+            Field field = record.getClass().getField(PROJECTION[i]);
+            Class<?> type = field.getType();
+            if (type == Long.TYPE) {
+                row[i] = field.getLong(record);
+            } else if (type == Integer.TYPE) {
+                row[i] = field.getInt(record);
+            } else if (type == Double.TYPE) {
+                row[i] = field.getDouble(record);
+            } else if (type == Boolean.TYPE) {
+                row[i] = field.getBoolean(record);
+            } else if (type == String.class) {
+                row[i] = field.get(record);
+            }
+        }
+        return row;
+    }
+
+    private static Object[] planRow(Record record) {
+        AccessorPlan<Record> plan = AccessorPlan.of(Record.class);
+        int[] indexes = plan.resolve(PROJECTION);
+        Object[] row = new Object[PROJECTION.length];
+        for (int i = 0; i < indexes.length; i ++) {
+            row[i] = plan.get(record, indexes[i]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,35 @@
+package com.goverse.provider.adapter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AccessorPlanTest {
+
+    private static final String[] PROJECTION = {"step", "calorie", "distance", "timeStamp"};
+
+    public static class Record {
+        public long timeStamp = 1624240480000L;
+        public long step = 8000;
+        public double distance = 5.6;
+        public double calorie = 320.5;
+        public long stepGoal = 10000;
+        public double duration = 3600;
+    }
+
+    @Test
+    public void get_valuesOfProjection() {
+        AccessorPlan<Record> plan = AccessorPlan.of(Record.class);
+        int[] indexes = plan.resolve(PROJECTION);
+        Object[] row = new Object[PROJECTION.length];
+        for (int i = 0; i < indexes.length; i ++) {
+            row[i] = plan.get(new Record(), indexes[i]);
+        }
+        assertArrayEquals(new Object[]{8000L, 320.5, 5.6, 1624240480000L}, row);
+    }
+
+    @Test
+    public void of_samePlanPerClass() {
+        assertSame(AccessorPlan.of(Record.class), AccessorPlan.of(Record.class));
+    }
+}
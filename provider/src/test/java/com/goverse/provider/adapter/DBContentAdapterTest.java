@@ -0,0 +1,157 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DBContentAdapterTest {
+
+    static class RecordAdapter extends DBContentAdapter {
+
+        RecordAdapter(ContentProvider contentProvider) {
+            super(contentProvider);
+        }
+
+        @Override
+        protected String tableName() {
+            return "record";
+        }
+
+        @Override
+        protected void onCreateDatabase(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE record (_id INTEGER PRIMARY KEY AUTOINCREMENT, time INTEGER, steps INTEGER, name TEXT)");
+        }
+    }
+
+    private RecordAdapter mAdapter;
+
+    @Before
+    public void setUp() {
+        mAdapter = new RecordAdapter(Robolectric.setupContentProvider(TestProvider.class));
+    }
+
+    @After
+    public void tearDown() {
+        mAdapter.shutdown();
+    }
+
+    private static ContentValues record(long time, int steps, String name) {
+        ContentValues values = new ContentValues();
+        values.put("time", time);
+        values.put("steps", steps);
+        values.put("name", name);
+        return values;
+    }
+
+    @Test
+    public void walEnabled() {
+        assertTrue(mAdapter.getDatabase().isWriteAheadLoggingEnabled());
+    }
+
+    @Test
+    public void insert_queryPassesProjectionSelectionAndSortOrder() {
+        assertTrue(mAdapter.insert(record(1, 100, "a")));
+        assertTrue(mAdapter.insert(record(2, 300, "b")));
+        assertTrue(mAdapter.insert(record(3, 200, "c")));
+
+        Cursor cursor = mAdapter.query(new String[]{"name", "steps"}, "steps >= ?", new String[]{"200"}, "steps DESC");
+        try {
+            assertEquals(2, cursor.getColumnCount());
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("b", cursor.getString(0));
+            assertEquals(300, cursor.getInt(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals("c", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void query_rejectsColumnsOutsideTable() {
+        mAdapter.insert(record(1, 100, "a"));
+        String[][] projections = {
+                {"(SELECT name FROM sqlite_master)"},
+                {"(SELECT name FROM sqlite_master) AS name"},
+                {"steps", "unknown"},
+        };
+        for (String[] projection : projections) {
+            try {
+                mAdapter.query(projection, null, null, null).close();
+                fail("projection accepted: " + projection[projection.length - 1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void updateAndDelete_withSelection() {
+        mAdapter.insert(record(1, 100, "a"));
+        mAdapter.insert(record(2, 200, "b"));
+
+        ContentValues values = new ContentValues();
+        values.put("steps", 150);
+        assertEquals(1, mAdapter.update(values, "name = ?", new String[]{"a"}));
+        // same shape again, served by cached SQL
+        values.put("steps", 160);
+        assertEquals(1, mAdapter.update(values, "name = ?", new String[]{"a"}));
+        assertEquals(1, mAdapter.delete("time = ?", new String[]{"2"}));
+
+        Cursor cursor = mAdapter.query(null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(160, cursor.getInt(cursor.getColumnIndexOrThrow("steps")));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void bulkInsert_inOneTransaction() {
+        ContentValues[] values = new ContentValues[100];
+        for (int i = 0; i < values.length; i ++) {
+            values[i] = record(i, i * 10, "r" + i);
+        }
+        assertEquals(100, mAdapter.bulkInsert(values));
+        assertFalse(mAdapter.getDatabase().inTransaction());
+
+        Cursor cursor = mAdapter.query(new String[]{"_id"}, null, null, null);
+        try {
+            assertEquals(100, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void batch_committedOnEnd() {
+        mAdapter.beginBatch();
+        assertTrue(mAdapter.getDatabase().inTransaction());
+        mAdapter.insert(record(1, 100, "a"));
+        mAdapter.insert(record(2, 200, "b"));
+        mAdapter.endBatch();
+        assertFalse(mAdapter.getDatabase().inTransaction());
+
+        Cursor cursor = mAdapter.query(null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+}
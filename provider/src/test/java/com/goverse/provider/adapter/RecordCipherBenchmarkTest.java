@@ -0,0 +1,79 @@
+package com.goverse.provider.adapter;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Microbenchmark of {@link RecordCipher} overhead against the per-call cipher creation
+ * of the former encrypt helper, run manually, correctness is covered by {@link RecordCipherTest}.
+ */
+@Ignore("benchmark, run manually")
+public class RecordCipherBenchmarkTest {
+
+    private static final int WARM_UP = 5_000;
+
+    private static final int ITERATIONS = 50_000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] JSON = ("{\"timeStamp\":1624240480000,\"step\":8000,\"distance\":5.6,"
+            + "\"calorie\":320.5,\"stepGoal\":10000,\"duration\":3600.0}").getBytes(UTF_8);
+
+    private static final byte[] KEY_NAME = "sport".getBytes(UTF_8);
+
+    private static SecretKey newKey() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        return keyGenerator.generateKey();
+    }
+
+    @Test
+    public void benchmark_encryptDecrypt() throws Exception {
+        SecretKey key = newKey();
+        RecordCipher recordCipher = new RecordCipher(key);
+        byte[] iv = new byte[16];
+        long sink = 0;
+        for (int i = 0; i < WARM_UP; i ++) {
+            sink += recordCipher.decrypt(recordCipher.encrypt(JSON, KEY_NAME), KEY_NAME).length;
+            sink += perCallRoundTrip(key.getEncoded(), iv).length;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            sink += perCallRoundTrip(key.getEncoded(), iv).length;
+        }
+        long perCall = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            sink += recordCipher.decrypt(recordCipher.encrypt(JSON, KEY_NAME), KEY_NAME).length;
+        }
+        long cached = System.nanoTime() - start;
+
+        System.out.println("per-call AES-CBC: " + perCall / ITERATIONS + " ns/round trip, cached AES-GCM: "
+                + cached / ITERATIONS + " ns/round trip, sink: " + sink);
+        assertTrue(sink > 0);
+    }
+
+    /**
+     * round trip as done by the former encrypt and decode helpers, without Base64.
+     */
+    private static byte[] perCallRoundTrip(byte[] secret, byte[] iv) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(iv));
+        byte[] encrypted = cipher.doFinal(JSON);
+        cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(iv));
+        return cipher.doFinal(encrypted);
+    }
+}
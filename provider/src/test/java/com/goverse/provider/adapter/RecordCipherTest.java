@@ -0,0 +1,76 @@
+package com.goverse.provider.adapter;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import static org.junit.Assert.*;
+
+public class RecordCipherTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] JSON = ("{\"timeStamp\":1624240480000,\"step\":8000,\"distance\":5.6,"
+            + "\"calorie\":320.5,\"stepGoal\":10000,\"duration\":3600.0}").getBytes(UTF_8);
+
+    private static final byte[] KEY_NAME = "sport".getBytes(UTF_8);
+
+    private static SecretKey newKey() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        return keyGenerator.generateKey();
+    }
+
+    @Test
+    public void encrypt_roundTripWithRandomNonce() throws Exception {
+        RecordCipher recordCipher = new RecordCipher(newKey());
+        byte[] first = recordCipher.encrypt(JSON, KEY_NAME);
+        byte[] second = recordCipher.encrypt(JSON, KEY_NAME);
+        assertFalse(Arrays.equals(first, second));
+        assertArrayEquals(JSON, recordCipher.decrypt(first, KEY_NAME));
+        assertArrayEquals(JSON, recordCipher.decrypt(second, KEY_NAME));
+    }
+
+    @Test
+    public void encrypt_storesNonceGeneratedByCipher() throws Exception {
+        SecretKey key = newKey();
+        byte[] encrypted = new RecordCipher(key).encrypt(JSON, KEY_NAME);
+        assertEquals(1, encrypted[0]);
+        // nonce in header decrypts without RecordCipher, as the cipher generated it.
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, encrypted, 1, 12));
+        cipher.updateAAD(KEY_NAME);
+        assertArrayEquals(JSON, cipher.doFinal(encrypted, 13, encrypted.length - 13));
+        assertArrayEquals(JSON, new RecordCipher(key).decrypt(encrypted, KEY_NAME));
+    }
+
+    @Test
+    public void decrypt_rejectsTamperedData() throws Exception {
+        RecordCipher recordCipher = new RecordCipher(newKey());
+        byte[] encrypted = recordCipher.encrypt(JSON, KEY_NAME);
+        encrypted[encrypted.length - 20] ^= 1;
+        try {
+            recordCipher.decrypt(encrypted, KEY_NAME);
+            fail("tampered data decrypted");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+
+    @Test
+    public void decrypt_rejectsOtherKeyName() throws Exception {
+        RecordCipher recordCipher = new RecordCipher(newKey());
+        byte[] encrypted = recordCipher.encrypt(JSON, KEY_NAME);
+        try {
+            recordCipher.decrypt(encrypted, "other".getBytes(UTF_8));
+            fail("value moved to other key decrypted");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of the day blocks of {@link RecordHistory}, in memory and through its file.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class RecordHistoryTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final String FILE_NAME = "record_history_test";
+
+    public static class LongRecord {
+        public long timeStamp;
+        public long value;
+    }
+
+    public static class DoubleRecord {
+        public long timeStamp;
+        public double value;
+    }
+
+    public static class Record {
+        public long timeStamp;
+        public long step;
+        public double distance;
+    }
+
+    private ContentProvider mProvider;
+
+    private TimeZone mTimeZone;
+
+    @Before
+    public void setUp() {
+        mTimeZone = TimeZone.getDefault();
+        // has a 23 hour day on 2021-03-14 and a 25 hour day on 2021-11-07.
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        mProvider = Robolectric.setupContentProvider(TestProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mTimeZone);
+    }
+
+    private static long dayStart(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getDefault());
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private static Record record(long timeStamp, long step, double distance) {
+        Record record = new Record();
+        record.timeStamp = timeStamp;
+        record.step = step;
+        record.distance = distance;
+        return record;
+    }
+
+    private RecordHistory<Record> newHistory(int retentionDays) {
+        return new RecordHistory<>(mProvider, FILE_NAME, Record.class, "timeStamp", retentionDays);
+    }
+
+    /**
+     * flush history and load it again from its file.
+     */
+    private RecordHistory<Record> reload(RecordHistory<Record> history, int retentionDays) {
+        history.flush();
+        return newHistory(retentionDays);
+    }
+
+    /**
+     * assert rows of [startTime, endTime) are times, steps and distances given, in order.
+     */
+    private static void assertRows(RecordHistory<Record> history, long startTime, long endTime,
+                                   long[] times, long[] steps, double[] distances) {
+        Cursor cursor = history.query(new String[]{"timeStamp", "step", "distance"}, startTime, endTime);
+        try {
+            assertEquals(times.length, cursor.getCount());
+            for (int i = 0; i < times.length; i ++) {
+                assertTrue(cursor.moveToPosition(i));
+                assertEquals("time of row " + i, times[i], cursor.getLong(0));
+                assertEquals("step of row " + i, steps[i], cursor.getLong(1));
+                assertEquals("distance of row " + i, Double.doubleToRawLongBits(distances[i]),
+                        Double.doubleToRawLongBits(cursor.getDouble(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void encode_longs_sparseMaskAndExtremeDeltas() {
+        RecordHistory<LongRecord> history = new RecordHistory<>(mProvider, FILE_NAME, LongRecord.class, "timeStamp", 30);
+        int mask = (1 << 0) | (1 << 5) | (1 << 6) | (1 << 17) | (1 << 23);
+        long[] values = {Long.MAX_VALUE, Long.MIN_VALUE, -1, 0, Long.MIN_VALUE};
+        long[][] hours = new long[24][1];
+        int v = 0;
+        for (int h = 0; h < 24; h ++) {
+            if ((mask & (1 << h)) != 0) hours[h][0] = values[v ++];
+        }
+        long[][] decoded = new long[24][1];
+        assertEquals(mask, history.decode(history.encode(mask, hours), decoded));
+        for (int h = 0; h < 24; h ++) {
+            if ((mask & (1 << h)) != 0) assertEquals("hour " + h, hours[h][0], decoded[h][0]);
+        }
+    }
+
+    @Test
+    public void encode_longs_fullDayRandom() {
+        RecordHistory<LongRecord> history = new RecordHistory<>(mProvider, FILE_NAME, LongRecord.class, "timeStamp", 30);
+        Random random = new Random(42);
+        int mask = (1 << 24) - 1;
+        for (int round = 0; round < 100; round ++) {
+            long[][] hours = new long[24][1];
+            for (int h = 0; h < 24; h ++) {
+                // small steps up and down, and now and then any long.
+                hours[h][0] = round % 10 == 0 ? random.nextLong() : random.nextInt(2000) - 1000;
+            }
+            long[][] decoded = new long[24][1];
+            assertEquals(mask, history.decode(history.encode(mask, hours), decoded));
+            for (int h = 0; h < 24; h ++) {
+                assertEquals("round " + round + " hour " + h, hours[h][0], decoded[h][0]);
+            }
+        }
+    }
+
+    @Test
+    public void encode_doubles_repeatedZeroAndNaN() {
+        RecordHistory<DoubleRecord> history = new RecordHistory<>(mProvider, FILE_NAME, DoubleRecord.class, "timeStamp", 30);
+        double[] values = {0.0, 0.0, 1.5, 1.5, -0.0, Double.NaN, Double.NaN, Double.MAX_VALUE,
+                Double.MIN_VALUE, Double.NEGATIVE_INFINITY, 3.25, 0.0};
+        int mask = 0;
+        long[][] hours = new long[24][1];
+        for (int i = 0; i < values.length; i ++) {
+            int h = i * 2;
+            mask |= 1 << h;
+            hours[h][0] = Double.doubleToRawLongBits(values[i]);
+        }
+        long[][] decoded = new long[24][1];
+        assertEquals(mask, history.decode(history.encode(mask, hours), decoded));
+        for (int i = 0; i < values.length; i ++) {
+            assertEquals("value " + i, hours[i * 2][0], decoded[i * 2][0]);
+        }
+    }
+
+    @Test
+    public void encode_emptyMask() {
+        RecordHistory<Record> history = newHistory(30);
+        assertEquals(0, history.decode(history.encode(0, new long[24][2]), new long[24][2]));
+    }
+
+    @Test
+    public void record_sealedAndReloaded_sameRows() {
+        long day = dayStart(2021, Calendar.JUNE, 1);
+        RecordHistory<Record> history = newHistory(30);
+        history.record(record(day + 10 * 60000, Long.MAX_VALUE, Double.NaN));
+        history.record(record(day + 7 * HOUR, -5, 0.0));
+        history.record(record(day + 7 * HOUR + 30 * 60000, 800, 0.0));
+        history.record(record(day + 23 * HOUR, Long.MIN_VALUE, -0.0));
+        // next day seals the first one.
+        history.record(record(day + DAY + HOUR, 12, 0.5));
+        long[] times = {day, day + 7 * HOUR, day + 23 * HOUR, day + DAY + HOUR};
+        long[] steps = {Long.MAX_VALUE, 800, Long.MIN_VALUE, 12};
+        double[] distances = {Double.NaN, 0.0, -0.0, 0.5};
+        assertRows(history, day, day + 2 * DAY, times, steps, distances);
+        assertRows(reload(history, 30), day, day + 2 * DAY, times, steps, distances);
+    }
+
+    @Test
+    public void record_shortDstDay() {
+        long day = dayStart(2021, Calendar.MARCH, 14);
+        long nextDay = dayStart(2021, Calendar.MARCH, 15);
+        assertEquals(23 * HOUR, nextDay - day);
+        RecordHistory<Record> history = newHistory(30);
+        long[] times = new long[24];
+        long[] steps = new long[24];
+        double[] distances = new double[24];
+        for (int h = 0; h < 23; h ++) {
+            history.record(record(day + h * HOUR + 30 * 60000, h + 1, h * 0.5));
+            times[h] = day + h * HOUR;
+            steps[h] = h + 1;
+            distances[h] = h * 0.5;
+        }
+        history.record(record(nextDay, 100, 1.0));
+        times[23] = nextDay;
+        steps[23] = 100;
+        distances[23] = 1.0;
+        assertRows(history, day, nextDay + DAY, times, steps, distances);
+        assertRows(reload(history, 30), day, nextDay + DAY, times, steps, distances);
+    }
+
+    @Test
+    public void record_longDstDay_lastHoursShareSlot() {
+        long day = dayStart(2021, Calendar.NOVEMBER, 7);
+        long nextDay = dayStart(2021, Calendar.NOVEMBER, 8);
+        assertEquals(25 * HOUR, nextDay - day);
+        RecordHistory<Record> history = newHistory(30);
+        long[] times = new long[25];
+        long[] steps = new long[25];
+        double[] distances = new double[25];
+        for (int h = 0; h < 25; h ++) {
+            history.record(record(day + h * HOUR, h + 1, h * 0.5));
+        }
+        for (int h = 0; h < 24; h ++) {
+            times[h] = day + h * HOUR;
+            steps[h] = h + 1;
+            distances[h] = h * 0.5;
+        }
+        // the 25th hour is the latest of the last slot.
+        steps[23] = 25;
+        distances[23] = 12;
+        history.record(record(nextDay, 100, 1.0));
+        times[24] = nextDay;
+        steps[24] = 100;
+        distances[24] = 1.0;
+        assertRows(history, day, nextDay + DAY, times, steps, distances);
+        assertRows(reload(history, 30), day, nextDay + DAY, times, steps, distances);
+    }
+
+    @Test
+    public void record_prunesDaysBeyondRetention() {
+        long day = dayStart(2021, Calendar.JUNE, 1);
+        RecordHistory<Record> history = newHistory(3);
+        for (int d = 0; d < 4; d ++) {
+            history.record(record(day + d * DAY + 10 * HOUR, d + 1, d));
+        }
+        long[] times = {day + DAY + 10 * HOUR, day + 2 * DAY + 10 * HOUR, day + 3 * DAY + 10 * HOUR};
+        long[] steps = {2, 3, 4};
+        double[] distances = {1, 2, 3};
+        assertRows(history, day, day + 4 * DAY, times, steps, distances);
+        assertRows(reload(history, 3), day, day + 4 * DAY, times, steps, distances);
+    }
+}
@@ -0,0 +1,217 @@
+package com.goverse.provider.adapter;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of {@link SPContentAdapter#atomicUpdate}: concurrent increments of
+ * the same key must not lose updates, while readers see monotonic values.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SPContentAdapterConcurrencyTest {
+
+    private static final int THREADS = 32;
+
+    private static final int INCREMENTS = 500;
+
+    private static final String SP_NAME = "counter_preference";
+
+    public static class Counter {
+        public long count;
+        public long other;
+    }
+
+    static class CounterAdapter extends SPContentAdapter<Counter> {
+
+        private final CachePolicy mCachePolicy;
+
+        private final DurabilityMode mDurabilityMode;
+
+        CounterAdapter(ContentProvider contentProvider, CachePolicy cachePolicy, DurabilityMode durabilityMode) {
+            super(contentProvider);
+            mCachePolicy = cachePolicy;
+            mDurabilityMode = durabilityMode;
+        }
+
+        @Override
+        protected CachePolicy cachePolicy() {
+            return mCachePolicy;
+        }
+
+        @Override
+        protected DurabilityMode durabilityMode() {
+            return mDurabilityMode;
+        }
+
+        void increment(final String key) {
+            atomicUpdate(SP_NAME, key, Counter.class, new Mutation<Counter>() {
+                @Override
+                public Counter mutate(Counter counter) {
+                    if (counter == null) counter = new Counter();
+                    counter.count ++;
+                    return counter;
+                }
+            });
+        }
+
+        long read(String key) {
+            Counter counter = readSnapshot(SP_NAME, key, Counter.class);
+            return counter != null ? counter.count : 0;
+        }
+
+        @Override
+        public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public boolean insert(ContentValues values) {
+            return false;
+        }
+
+        @Override
+        public int update(ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int delete(String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private ContentProvider mProvider;
+
+    private final List<CounterAdapter> mAdapters = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(TestProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        for (CounterAdapter adapter : mAdapters) {
+            adapter.shutdown();
+        }
+    }
+
+    private CounterAdapter newAdapter(SPContentAdapter.CachePolicy cachePolicy, SPContentAdapter.DurabilityMode durabilityMode) {
+        CounterAdapter adapter = new CounterAdapter(mProvider, cachePolicy, durabilityMode);
+        mAdapters.add(adapter);
+        return adapter;
+    }
+
+    /**
+     * increment keys from all threads at once, with a reader checking values never go back.
+     */
+    private void runIncrements(final CounterAdapter adapter, final String[] keys) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t ++) {
+            final String key = keys[t % keys.length];
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    try {
+                        for (int i = 0; i < INCREMENTS; i ++) {
+                            adapter.increment(key);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                    return null;
+                }
+            }));
+        }
+        futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                start.await();
+                long last = 0;
+                while (done.getCount() > 0) {
+                    long value = adapter.read(keys[0]);
+                    assertTrue("value went back from " + last + " to " + value, value >= last);
+                    last = value;
+                }
+                return null;
+            }
+        }));
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+    }
+
+    @Test
+    public void atomicUpdate_noLostUpdates_snapshotWriteBehind() throws Exception {
+        CounterAdapter adapter = newAdapter(SPContentAdapter.CachePolicy.SNAPSHOT, SPContentAdapter.DurabilityMode.WRITE_BEHIND);
+        runIncrements(adapter, new String[]{"a"});
+        assertEquals(THREADS * INCREMENTS, adapter.read("a"));
+        adapter.flush();
+    }
+
+    @Test
+    public void atomicUpdate_noLostUpdates_snapshotSync() throws Exception {
+        CounterAdapter adapter = newAdapter(SPContentAdapter.CachePolicy.SNAPSHOT, SPContentAdapter.DurabilityMode.SYNC);
+        runIncrements(adapter, new String[]{"a"});
+        assertEquals(THREADS * INCREMENTS, adapter.read("a"));
+    }
+
+    @Test
+    public void atomicUpdate_noLostUpdates_withoutSnapshot() throws Exception {
+        CounterAdapter adapter = newAdapter(SPContentAdapter.CachePolicy.NONE, SPContentAdapter.DurabilityMode.SYNC);
+        runIncrements(adapter, new String[]{"a"});
+        assertEquals(THREADS * INCREMENTS, adapter.read("a"));
+    }
+
+    @Test
+    public void atomicUpdate_stripedKeysIndependent() throws Exception {
+        CounterAdapter adapter = newAdapter(SPContentAdapter.CachePolicy.SNAPSHOT, SPContentAdapter.DurabilityMode.WRITE_BEHIND);
+        String[] keys = {"a", "b", "c", "d"};
+        runIncrements(adapter, keys);
+        for (String key : keys) {
+            assertEquals(THREADS / keys.length * INCREMENTS, adapter.read(key));
+        }
+    }
+
+    @Test
+    public void atomicUpdate_nullKeepsCurrent() {
+        CounterAdapter adapter = newAdapter(SPContentAdapter.CachePolicy.SNAPSHOT, SPContentAdapter.DurabilityMode.SYNC);
+        adapter.increment("a");
+        Counter result = adapter.atomicUpdate(SP_NAME, "a", Counter.class, new SPContentAdapter.Mutation<Counter>() {
+            @Override
+            public Counter mutate(Counter counter) {
+                return null;
+            }
+        });
+        assertNull(result);
+        assertEquals(1, adapter.read("a"));
+    }
+}
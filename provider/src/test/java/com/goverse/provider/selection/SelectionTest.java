@@ -0,0 +1,131 @@
+package com.goverse.provider.selection;
+
+import com.goverse.provider.adapter.RecordCodec;
+import com.goverse.provider.adapter.RecordCodecs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Selection and sortOrder evaluated against records by codec accessors.
+ */
+public class SelectionTest {
+
+    public static class Record {
+        public long timeStamp;
+        public long step;
+        public double distance;
+        public boolean goalReached;
+        public String device;
+
+        Record(long timeStamp, long step, double distance, boolean goalReached, String device) {
+            this.timeStamp = timeStamp;
+            this.step = step;
+            this.distance = distance;
+            this.goalReached = goalReached;
+            this.device = device;
+        }
+    }
+
+    private final RecordCodec<Record> mCodec = RecordCodecs.of(Record.class);
+
+    private final Record mWatch = new Record(1000, 8000, 5.6, false, "Watch GT");
+
+    private final Record mPhone = new Record(2000, 12000, 8.25, true, "phone");
+
+    private final Record mUnknown = new Record(3000, 0, 0, false, null);
+
+    private boolean matches(String selection, Record record, String... args) {
+        return Selection.compile(selection, mCodec).bind(args).matches(mCodec, record);
+    }
+
+    @Test
+    public void compare_numericAndString() {
+        assertTrue(matches("step > ?", mWatch, "7999"));
+        assertFalse(matches("step > ?", mWatch, "8000"));
+        assertTrue(matches("step >= 8000 AND distance < 5.7", mWatch));
+        assertTrue(matches("distance = ?", mPhone, "8.25"));
+        assertTrue(matches("step < ?", mWatch, "8000.5"));
+        assertTrue(matches("device = 'phone'", mPhone));
+        assertTrue(matches("device != ?", mWatch, "phone"));
+        assertTrue(matches("goalReached = ?", mPhone, "true"));
+        assertTrue(matches("goalReached == 0", mWatch));
+        assertTrue(matches("step > -1", mUnknown));
+    }
+
+    @Test
+    public void combinators() {
+        assertTrue(matches("step > 10000 OR device = 'Watch GT'", mWatch));
+        assertFalse(matches("NOT (step > 10000 OR device = 'Watch GT')", mWatch));
+        assertTrue(matches("(step > 10000 OR distance > 5) AND timeStamp BETWEEN ? AND ?", mWatch, "1000", "1000"));
+        assertTrue(matches("step IN (1, ?, 3)", mWatch, "8000"));
+        assertTrue(matches("step NOT IN (1, 2)", mWatch));
+        assertFalse(matches("timeStamp NOT BETWEEN 500 AND 1500", mWatch));
+        assertTrue(matches("step > ?2 AND step < ?1", mWatch, "9000", "7000"));
+    }
+
+    @Test
+    public void nullsAndLike() {
+        assertTrue(matches("device IS NULL", mUnknown));
+        assertTrue(matches("device IS NOT NULL", mWatch));
+        assertFalse(matches("device = 'phone'", mUnknown));
+        assertFalse(matches("device != 'phone'", mUnknown));
+        assertTrue(matches("device LIKE 'watch%'", mWatch));
+        assertTrue(matches("device LIKE '%G_'", mWatch));
+        assertFalse(matches("device LIKE 'watch'", mWatch));
+        assertTrue(matches("device NOT LIKE ?", mWatch, "%phone%"));
+        assertTrue(matches("step LIKE '80%'", mWatch));
+        assertTrue(matches("device = 'it''s'", new Record(0, 0, 0, false, "it's")));
+    }
+
+    @Test
+    public void compiled_cachedByText() {
+        assertSame(Selection.compile("step > ?", mCodec), Selection.compile("step > ?", mCodec));
+        assertTrue(Selection.compile(null, mCodec).isMatchAll());
+        assertEquals(2, Selection.compile("step > ? AND distance < ?", mCodec).getArgCount());
+    }
+
+    @Test
+    public void invalid_rejected() {
+        String[] invalid = {"unknown = 1", "step >", "step = 1 AND", "(step = 1", "step ~ 1", "step = 'x"};
+        for (String selection : invalid) {
+            try {
+                Selection.compile(selection, mCodec);
+                fail("accepted: " + selection);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+        try {
+            Selection.compile("step > ? AND step < ?", mCodec).bind(new String[]{"1"});
+            fail("accepted too few args");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void order_byColumnsWithLimit() {
+        List<Record> records = new ArrayList<>();
+        records.add(mWatch);
+        records.add(mPhone);
+        records.add(mUnknown);
+        RowOrder order = RowOrder.compile("goalReached DESC, step ASC LIMIT 2", mCodec);
+        assertTrue(order.hasKeys());
+        assertEquals(2, order.getLimit());
+        Collections.sort(records, order.comparator(mCodec));
+        assertSame(mPhone, records.get(0));
+        assertSame(mUnknown, records.get(1));
+        assertSame(mWatch, records.get(2));
+
+        RowOrder natural = RowOrder.compile("DESC LIMIT 1", mCodec);
+        assertFalse(natural.hasKeys());
+        assertTrue(natural.isDescending());
+        assertEquals(1, natural.getLimit());
+    }
+}